@@ -0,0 +1,91 @@
+package benchmarks;
+
+import client.crypto.LocalStore.ChatMessageEntry;
+import client.storage.ChatLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+ * Client chat history through ChatLog, with store.dir pointed at a temporary directory: appending one
+ * message, a write-behind batch of 50 forced to disk together, and 50-message pages at the newest end and
+ * deep in a 100k message history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatLogBenchmark {
+    private static final int HISTORY = 100_000;
+    private static final int PAGE = 50;
+    private static final String CIPHER = "RU5WMgAAAQ".repeat(40);
+
+    private static final String USER = "alice";
+    private static final String PEER = "bob";
+
+    private Path dir;
+    private long timestamp;
+    private long deepTimestamp;
+    private long deepId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("chatlog-bench");
+        // Read once when ChatLog is first used, which is below
+        System.setProperty("store.dir", dir.toString());
+        for (int i = 0; i < HISTORY; i++) {
+            append();
+        }
+        ChatLog.force();
+        ChatMessageEntry deep = ChatLog.before(USER, PEER, Long.MAX_VALUE, Long.MAX_VALUE, HISTORY / 2).get(0);
+        deepTimestamp = deep.timestamp;
+        deepId = deep.id;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long appendOne() throws IOException {
+        return append();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE)
+    public long appendBatchAndForce() throws IOException {
+        long id = 0;
+        for (int i = 0; i < PAGE; i++) {
+            id = append();
+        }
+        ChatLog.force();
+        return id;
+    }
+
+    @Benchmark
+    public List<ChatMessageEntry> latestPage() throws IOException {
+        return ChatLog.before(USER, PEER, Long.MAX_VALUE, Long.MAX_VALUE, PAGE);
+    }
+
+    @Benchmark
+    public List<ChatMessageEntry> deepPage() throws IOException {
+        return ChatLog.before(USER, PEER, deepTimestamp, deepId, PAGE);
+    }
+
+    private long append() throws IOException {
+        ChatMessageEntry entry = new ChatMessageEntry(USER, PEER, CIPHER, timestamp++);
+        ChatLog.append(USER, PEER, entry);
+        return entry.id;
+    }
+}
@@ -0,0 +1,96 @@
+package benchmarks;
+
+import client.crypto.CryptoUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Client crypto per message and per key exchange: whole-message RSA (legacy), single-use envelopes,
+ * session-key envelopes as SessionKeyCache uses them in steady state, and public key decoding with and
+ * without a cache hit; a miss includes the Base64 normalisation of a key with a line break in it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoBenchmark {
+    private static final String TEXT = "See you at the station at 6? I'll bring the tickets and the snacks.";
+    // More distinct strings than the decoded-key cache holds, so cycling through them always misses
+    private static final int KEY_VARIANTS = 300;
+
+    private KeyPair me;
+    private KeyPair peer;
+    private String rsaCipher;
+    private String envelope;
+    private CryptoUtil.SessionKey session;
+    private String sessionCipher;
+    private String publicKey;
+    private String[] keyVariants;
+    private int nextVariant;
+
+    @Setup(Level.Trial)
+    public void setUp() throws GeneralSecurityException {
+        me = CryptoUtil.generateRSAKeyPair();
+        peer = CryptoUtil.generateRSAKeyPair();
+        rsaCipher = CryptoUtil.encryptWithPublicKey(TEXT, peer.getPublic());
+        envelope = CryptoUtil.encryptForRecipients(TEXT, peer.getPublic(), me.getPublic());
+        session = CryptoUtil.newSessionKey(peer.getPublic(), me.getPublic());
+        sessionCipher = CryptoUtil.encryptWithSessionKey(TEXT, session);
+
+        publicKey = CryptoUtil.encodePublicKey(peer.getPublic());
+        keyVariants = new String[KEY_VARIANTS];
+        for (int i = 0; i < KEY_VARIANTS; i++) {
+            keyVariants[i] = publicKey.substring(0, i) + "\n" + publicKey.substring(i);
+        }
+    }
+
+    @Benchmark
+    public String rsaEncrypt() throws GeneralSecurityException {
+        return CryptoUtil.encryptWithPublicKey(TEXT, peer.getPublic());
+    }
+
+    @Benchmark
+    public String rsaDecrypt() throws GeneralSecurityException {
+        return CryptoUtil.decryptWithPrivateKey(rsaCipher, peer.getPrivate());
+    }
+
+    @Benchmark
+    public String envelopeEncrypt() throws GeneralSecurityException {
+        return CryptoUtil.encryptForRecipients(TEXT, peer.getPublic(), me.getPublic());
+    }
+
+    @Benchmark
+    public String envelopeDecrypt() throws GeneralSecurityException {
+        return CryptoUtil.decryptWithPrivateKey(envelope, peer.getPrivate());
+    }
+
+    @Benchmark
+    public String sessionEncrypt() throws GeneralSecurityException {
+        return CryptoUtil.encryptWithSessionKey(TEXT, session);
+    }
+
+    /* The cached-key path of SessionKeyCache.decrypt */
+    @Benchmark
+    public String sessionDecrypt() throws GeneralSecurityException {
+        byte[] ct = CryptoUtil.decodeCiphertext(sessionCipher);
+        return CryptoUtil.openEnvelope(ct, CryptoUtil.parseEnvelope(ct), session.key());
+    }
+
+    @Benchmark
+    public PublicKey decodePublicKeyCached() throws GeneralSecurityException {
+        return CryptoUtil.decodePublicKey(publicKey);
+    }
+
+    @Benchmark
+    public PublicKey decodePublicKeyUncached() throws GeneralSecurityException {
+        String variant = keyVariants[nextVariant];
+        nextVariant = (nextVariant + 1) % KEY_VARIANTS;
+        return CryptoUtil.decodePublicKey(variant);
+    }
+}
@@ -0,0 +1,112 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.Random;
+
+/*
+ * Prepares the in-memory H2 database described by bench/h2.properties: copies its db.* settings into
+ * system properties, which DatabaseStore prefers over the server's application.properties, creates the
+ * server schema once per JVM and seeds users. Connects with DriverManager directly so that nothing here
+ * goes through the pool being measured. create() must run before anything touches DatabaseStore.
+ */
+public final class H2StandIn {
+    private static final String PROPERTIES = "bench/h2.properties";
+    private static final String SCHEMA = "bench/server_schema_h2.sql";
+    private static final String[] SYLLABLES = {
+            "ka", "ri", "to", "mel", "an", "jo", "lu", "sa", "vin", "dre", "el", "is", "na", "ro", "ph", "uc"
+    };
+    private static boolean created;
+
+    static {
+        Properties props = new Properties();
+        try (InputStream input = resource(PROPERTIES)) {
+            props.load(input);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read " + PROPERTIES, e);
+        }
+        // -D settings on the benchmark command line still win
+        for (String key : props.stringPropertyNames()) {
+            if (System.getProperty(key) == null) System.setProperty(key, props.getProperty(key));
+        }
+    }
+
+    private H2StandIn() {}
+
+    /* Creates the tables if this JVM has not done so yet */
+    public static synchronized void create() throws SQLException, IOException {
+        if (created) return;
+        String schema;
+        try (InputStream input = resource(SCHEMA)) {
+            schema = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            for (String sql : schema.split(";")) {
+                String statement = stripComments(sql);
+                if (!statement.isBlank()) stmt.execute(statement);
+            }
+        }
+        created = true;
+    }
+
+    /* Inserts count users with reproducible pseudo-random names that share realistic substrings */
+    public static void seedUsers(int count) throws SQLException {
+        Random random = new Random(42);
+        String sql = "INSERT INTO users (username, password_hash, salt) VALUES (?, ?, ?)";
+        try (Connection conn = connect(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            conn.setAutoCommit(false);
+            for (int i = 0; i < count; i++) {
+                stmt.setString(1, username(random, i));
+                stmt.setString(2, "0".repeat(64));
+                stmt.setString(3, "AAAAAAAAAAAAAAAAAAAAAA==");
+                stmt.addBatch();
+                if (i % 1000 == 999) stmt.executeBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+        }
+    }
+
+    /* Runs one statement outside the pool, e.g. to empty a table between iterations */
+    public static void execute(String sql) throws SQLException {
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    static String username(Random random, int i) {
+        StringBuilder name = new StringBuilder();
+        int syllables = 2 + random.nextInt(3);
+        for (int s = 0; s < syllables; s++) {
+            name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        if (random.nextBoolean()) name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+        return name.append(i).toString();
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection(System.getProperty("db.url"),
+                System.getProperty("db.user"), System.getProperty("db.password", ""));
+    }
+
+    private static InputStream resource(String name) throws IOException {
+        InputStream input = H2StandIn.class.getClassLoader().getResourceAsStream(name);
+        if (input == null) throw new IOException(name + " not found on the classpath");
+        return input;
+    }
+
+    private static String stripComments(String sql) {
+        StringBuilder out = new StringBuilder();
+        for (String line : sql.split("\n")) {
+            if (!line.trim().startsWith("--")) out.append(line).append('\n');
+        }
+        return out.toString();
+    }
+}
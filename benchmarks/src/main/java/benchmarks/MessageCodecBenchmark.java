@@ -0,0 +1,56 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shared.Message;
+import shared.MessageCodec;
+import shared.MessageType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/* Encode + decode of one chat message with the binary codec and with the legacy Java serialization */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+    private final MessageCodec codec = new MessageCodec();
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private Message chat;
+
+    @Setup
+    public void setUp() {
+        byte[] envelope = new byte[570];
+        new Random(7).nextBytes(envelope);
+        chat = new Message(MessageType.CHAT_MESSAGE, "alice", "bob",
+                Base64.getEncoder().encodeToString(envelope) + "|IN_CHAT");
+    }
+
+    @Benchmark
+    public Message binaryRoundTrip() throws IOException {
+        buffer.clear();
+        codec.encode(chat, buffer);
+        buffer.flip();
+        return codec.decode(buffer);
+    }
+
+    @Benchmark
+    public Object serializationRoundTrip() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(chat);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import server.ClientHandler;
+import server.PasswordUtil;
+import server.UserCache;
+import server.UserManager;
+import shared.Message;
+import shared.MessageStream;
+import shared.MessageType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Per-request work on the server, each through the entry point a client message reaches: password hashing
+ * on login and registration, UPDATE_PUBLIC_KEY handling (PEM and URL-safe Base64 cleanup, then the cache
+ * update), and a paged SEARCH_USER answered by a ClientHandler over a loopback socket, which covers the
+ * handler's term, limit and cursor parsing and the reply payload on top of the UsernameIndex lookup.
+ * The handlers' console logging is discarded for the trial so it does not flood the results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerHotPathBenchmark {
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final String SALT = "q83vEjRWeJCrze8SNFZ4kA==";
+    private static final int USERS = 10_000;
+    private static final String USER = "benchuser";
+    // A 2048-bit X.509 key as a client might paste it: PEM armour, line breaks, URL-safe alphabet
+    private static final String PEM_KEY;
+
+    static {
+        StringBuilder key = new StringBuilder("-----BEGIN PUBLIC KEY-----\n");
+        String body = "MIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEA" + "u1SU1LfVLPHCozMxH2Mo4lgOEePzNm0tRgeLezV6ffAt0gunVTLw7onLRnrq0_-w".repeat(5) + "IDAQAB";
+        for (int i = 0; i < body.length(); i += 64) {
+            key.append(body, i, Math.min(body.length(), i + 64)).append('\n');
+        }
+        PEM_KEY = key.append("-----END PUBLIC KEY-----").toString();
+    }
+
+    private PrintStream console;
+    private ClientHandler keyHandler;
+    private Message keyUpdate;
+    private ServerSocket listener;
+    private Socket client;
+    private MessageStream stream;
+    private Message search;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException, ClassNotFoundException {
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        H2StandIn.create();
+        H2StandIn.seedUsers(USERS);
+        UserCache.load();
+        UserManager.register(USER, PASSWORD);
+
+        // handleUpdatePublicKey never writes to the handler, so an unconnected one will do
+        keyHandler = new ClientHandler(new Socket(), Runnable::run);
+        keyUpdate = new Message(MessageType.UPDATE_PUBLIC_KEY, USER, USER, PEM_KEY);
+
+        // One signed-in connection; replies are written inline on the handler's own thread
+        listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread server = new Thread(() -> {
+            try {
+                new ClientHandler(listener.accept(), Runnable::run).run();
+            } catch (IOException ignored) {}
+        }, "bench-client-handler");
+        server.setDaemon(true);
+        server.start();
+        client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+        client.setTcpNoDelay(true);
+        stream = MessageStream.connect(client.getInputStream(), client.getOutputStream());
+        stream.write(new Message(MessageType.LOGIN, USER, USER, PASSWORD));
+        stream.flush();
+        Message reply = stream.read();
+        if (reply.getType() != MessageType.LOGIN_SUCCESS) {
+            throw new IllegalStateException("Benchmark login failed: " + reply.getContent());
+        }
+        search = new Message(MessageType.SEARCH_USER, USER, "Server", "mel\n50\n");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        listener.close();
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public String hashPassword() {
+        return PasswordUtil.hash(PASSWORD, SALT);
+    }
+
+    @Benchmark
+    public Message updatePublicKey() throws SQLException {
+        UserManager.handleUpdatePublicKey(keyUpdate, keyHandler);
+        return keyUpdate;
+    }
+
+    @Benchmark
+    public Message searchUserRoundTrip() throws IOException, ClassNotFoundException {
+        stream.write(search);
+        stream.flush();
+        return stream.read();
+    }
+}
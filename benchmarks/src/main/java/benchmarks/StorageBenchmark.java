@@ -0,0 +1,88 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import server.storage.ChatEntry;
+import server.storage.DatabaseStore;
+import server.storage.MessageStore;
+import server.storage.UserData;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Storage paths of the server against the in-memory H2 stand-in: group-committed offline enqueues under
+ * contention, one offline delivery cycle (enqueue, read, delete), and a write-behind batch of user rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+    private static final int USERS = 1_000;
+    private static final int DELIVERY_SIZE = 20;
+    private static final int USER_BATCH = 100;
+    // Roughly one session-key envelope: two wrapped keys plus a short body, Base64 encoded
+    private static final String CIPHER = "A".repeat(760);
+
+    private int[] userIds;
+    private List<UserData> users;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException {
+        H2StandIn.create();
+        H2StandIn.seedUsers(USERS);
+        users = DatabaseStore.loadUsers();
+        userIds = new int[users.size()];
+        for (int i = 0; i < userIds.length; i++) {
+            userIds[i] = users.get(i).userId;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void emptyQueue() throws SQLException {
+        H2StandIn.execute("DELETE FROM pending_messages");
+    }
+
+    /* Many senders at once, so the committer folds them into shared transactions */
+    @Benchmark
+    @Threads(8)
+    public void enqueueGroupCommit() throws SQLException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        MessageStore.enqueue(userIds[random.nextInt(userIds.length)], userIds[random.nextInt(userIds.length)],
+                CIPHER, System.currentTimeMillis());
+    }
+
+    /* What one history request costs for a conversation with DELIVERY_SIZE waiting messages */
+    @Benchmark
+    public int offlineDelivery() throws SQLException {
+        int sender = userIds[0];
+        int receiver = userIds[1];
+        for (int i = 0; i < DELIVERY_SIZE; i++) {
+            MessageStore.enqueue(sender, receiver, CIPHER, i);
+        }
+        List<ChatEntry> pending = MessageStore.pendingFor(receiver, sender);
+        List<Long> ids = new ArrayList<>(pending.size());
+        for (ChatEntry entry : pending) {
+            ids.add(entry.id);
+        }
+        MessageStore.delete(ids);
+        return ids.size();
+    }
+
+    /* One write-behind flush of USER_BATCH changed rows */
+    @Benchmark
+    public void updateUserBatch() throws SQLException {
+        int from = ThreadLocalRandom.current().nextInt(users.size() - USER_BATCH);
+        List<UserData> batch = users.subList(from, from + USER_BATCH);
+        for (UserData user : batch) {
+            user.failedAttempts = (user.failedAttempts + 1) % 5;
+        }
+        DatabaseStore.updateUsers(batch);
+    }
+}
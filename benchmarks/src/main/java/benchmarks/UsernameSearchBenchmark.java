@@ -0,0 +1,39 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import server.UserCache;
+import server.UsernameIndex;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One SEARCH_USER page over USERS accounts loaded from the H2 stand-in into UserCache and UsernameIndex.
+ * Terms cover unigram and bigram lookups, common and selective trigram lookups, and a miss.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UsernameSearchBenchmark {
+    private static final int USERS = 100_000;
+    private static final int PAGE = 50;
+
+    @Param({"a", "ri", "mel", "vindre4", "qqq"})
+    public String term;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException {
+        H2StandIn.create();
+        H2StandIn.seedUsers(USERS);
+        UserCache.load();
+    }
+
+    @Benchmark
+    public UsernameIndex.Page firstPage() {
+        return UsernameIndex.search(term, 0, PAGE, "");
+    }
+}
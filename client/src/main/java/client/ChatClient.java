@@ -1,35 +1,56 @@
 package client;
 
-import client.Controller.MainController;
+import client.Controller.ViewCache;
+import client.crypto.PlaintextCache;
 import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import shared.Message;
+import shared.MessageStream;
+import shared.MessageType;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.Objects;
-import java.util.function.Consumer;
+import java.util.concurrent.CompletableFuture;
 
 public class ChatClient {
+    private static final long FLUSH_TIMEOUT_MS = 2000;
+    private static final int CONNECT_TIMEOUT_MS = Integer.getInteger("send.connectTimeoutMs", 5000);
+    private static final long RECONNECT_MS = Long.getLong("send.reconnectMs", 500);
+    private static final long RECONNECT_MAX_MS = Long.getLong("send.reconnectMaxMs", 30_000);
+
     private Stage primaryStage;
     private String username;
 
-    private final Socket socket;
-    private final ObjectOutputStream out;
-    private final ObjectInputStream  in;
-    private Consumer<Message> onMessage;
-
-    public ChatClient(String host, int port, Consumer<Message> onMessage) throws Exception {
-        this.onMessage = onMessage;
-        this.socket    = new Socket(host, port);
-        this.out       = new ObjectOutputStream(socket.getOutputStream());
-        this.in        = new ObjectInputStream(socket.getInputStream());
-        startListener();
+    private final String host;
+    private final int port;
+    // The current connection; both null while it is down and the writer thread is reconnecting
+    private Socket socket;
+    private MessageStream stream;
+    private volatile boolean closed;
+    // What the server forgets when a connection drops; sent again first thing after reconnecting. The
+    // session comes from the last LOGIN_SUCCESS, so the password itself is never kept.
+    private String sessionUser;
+    private String sessionToken;
+    private Message chatState;
+
+    private final MessageBus bus = new MessageBus();
+    private final SendQueue outbox;
+    private final PlaintextCache plaintext = new PlaintextCache();
+    private final ViewCache views = new ViewCache();
+
+    /** Connects to the server; subscribe on {@link #getBus()} before sending anything that expects a reply. */
+    public ChatClient(String host, int port) throws Exception {
+        this.host = host;
+        this.port = port;
+        bus.subscribe(MessageBus.Delivery.BACKGROUND, this::onLoginReply,
+                MessageType.LOGIN_SUCCESS, MessageType.LOGIN_FAILURE);
+        open();
+        this.outbox = new SendQueue(this);
     }
 
 
@@ -46,35 +67,175 @@ public class ChatClient {
         return username;
     }
 
+    /** Decrypted messages seen during this session; wiped by {@link #close()}. */
+    public PlaintextCache getPlaintextCache() {
+        return plaintext;
+    }
+
+
+
+    /** Where messages from the server are delivered, by type, to any number of subscribers. */
+    public MessageBus getBus() {
+        return bus;
+    }
+
+    /** Views of this session, kept loaded between navigations. */
+    public ViewCache getViews() {
+        return views;
+    }
+
+    /** Queues msg for the writer thread; the future completes once it is flushed, or fails if it cannot be sent. */
+    public CompletableFuture<Void> send(Message msg) {
+        return outbox.send(msg);
+    }
 
+    /* Connects, negotiates the wire format and starts reading */
+    private void open() throws IOException {
+        Socket s = connectSocket();
+        try {
+            MessageStream negotiated = MessageStream.connect(s.getInputStream(), s.getOutputStream());
+            if (negotiated == null) {
+                // Server predates the binary codec and answered with Java serialization; start over in that format
+                s.close();
+                s = connectSocket();
+                negotiated = MessageStream.legacy(s.getInputStream(), s.getOutputStream());
+            }
+            synchronized (this) {
+                if (closed) throw new IOException("Connection closed");
+                socket = s;
+                stream = negotiated;
+            }
+            startListener(s, negotiated);
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+    }
 
-    public void setOnMessage(Consumer<Message> onMessage) {
-        this.onMessage = onMessage;
+    private Socket connectSocket() throws IOException {
+        Socket s = new Socket();
+        s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        return s;
     }
 
-    private void startListener() {
+    private void startListener(Socket s, MessageStream in) {
         Thread listener = new Thread(() -> {
             try {
-                while (!socket.isClosed()) {
-                    Message msg = (Message) in.readObject();
-                    if (onMessage != null) {
-                        onMessage.accept(msg);
-                    }
+                while (!s.isClosed()) {
+                    bus.publish(in.read());
                 }
             } catch (Exception e) {
-                e.printStackTrace();
+                connectionLost(in, e);
             }
-        });
+        }, "chat-listener");
         listener.setDaemon(true);
         listener.start();
     }
 
-    public void send(Message msg) throws Exception {
-        out.writeObject(msg);
-        out.flush();
+    /*
+     * The stream for the writer thread, reconnecting with growing pauses while the connection is down.
+     * A new connection first resumes the session with its token and restores the chat state, so the
+     * server treats the replayed messages as part of the same session.
+     */
+    MessageStream connection() throws IOException, InterruptedException {
+        long delay = RECONNECT_MS;
+        while (true) {
+            Message resumeLogin;
+            Message resumeChatState;
+            synchronized (this) {
+                if (closed) throw new IOException("Connection closed");
+                if (stream != null) return stream;
+                resumeLogin = sessionToken == null ? null
+                        : new Message(MessageType.RESUME_SESSION, "", sessionUser, sessionToken);
+                // A fresh copy: the queued original's client id is one the server has already seen
+                resumeChatState = chatState == null ? null : new Message(chatState.getType(),
+                        chatState.getSender(), chatState.getReceiver(), chatState.getContent());
+            }
+            MessageStream out = null;
+            try {
+                open();
+                synchronized (this) {
+                    out = stream;
+                }
+                if (out != null && resumeLogin != null) {
+                    out.write(resumeLogin);
+                    if (resumeChatState != null) out.write(resumeChatState);
+                    out.flush();
+                }
+                System.out.println("Reconnected to " + host + ":" + port);
+            } catch (IOException e) {
+                if (out != null) connectionLost(out, e);
+                if (closed) throw new IOException("Connection closed");
+                System.err.println("Reconnecting to " + host + ":" + port + " failed: " + e.getMessage()
+                        + "; retrying in " + delay + " ms");
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, RECONNECT_MAX_MS);
+            }
+        }
+    }
+
+    /* Drops failed if it is still the current connection; the writer thread then reconnects */
+    void connectionLost(MessageStream failed, Exception cause) {
+        Socket dropped;
+        synchronized (this) {
+            if (closed || stream != failed) return;
+            dropped = socket;
+            socket = null;
+            stream = null;
+        }
+        System.err.println("Lost connection to server: " + cause);
+        try {
+            dropped.close();
+        } catch (IOException ignored) {}
+        // Null only if the first connection drops while the constructor is still running
+        if (outbox != null) outbox.wake();
+    }
+
+    /* Called by the writer thread for each message once it is flushed */
+    synchronized void sent(Message msg) {
+        switch (msg.getType()) {
+            case LOGOUT -> {
+                sessionUser = null;
+                sessionToken = null;
+                chatState = null;
+            }
+            case CHAT_STATE_UPDATE -> chatState = msg;
+            default -> {}
+        }
+    }
+
+    /* A LOGIN_SUCCESS carries the token to resume with; a failed login or resume ends the session */
+    private synchronized void onLoginReply(Message msg) {
+        if (closed) return;
+        if (msg.getType() == MessageType.LOGIN_SUCCESS && msg.getContent() != null && !msg.getContent().isEmpty()) {
+            sessionUser = msg.getReceiver();
+            sessionToken = msg.getContent();
+        } else {
+            if (sessionToken != null) {
+                System.err.println("Could not resume the session: " + msg.getContent());
+            }
+            // Chat state is only replayed along with a token, so it can stay
+            sessionUser = null;
+            sessionToken = null;
+        }
     }
 
     public void close() throws Exception {
-        socket.close();
+        ChatMessageWriter.flushAndWait(FLUSH_TIMEOUT_MS);
+        outbox.close(FLUSH_TIMEOUT_MS);
+        Socket s;
+        synchronized (this) {
+            closed = true;
+            s = socket;
+            socket = null;
+            stream = null;
+            sessionUser = null;
+            sessionToken = null;
+            chatState = null;
+        }
+        plaintext.wipe();
+        views.clear();
+        if (s != null) s.close();
+        bus.shutdown();
     }
 }
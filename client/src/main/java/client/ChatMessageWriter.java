@@ -0,0 +1,120 @@
+package client;
+
+import client.crypto.LocalStore.ChatMessageEntry;
+import client.storage.ChatLog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue for the local chat history. Saves are handed to one background thread, which waits up
+ * to store.flushMs after the first queued row for more to arrive, then appends up to store.maxBatch rows to
+ * the ChatLog and forces them to disk together. Each save returns a future that completes once its row is
+ * durable, so the FX thread never waits on disk I/O.
+ */
+public final class ChatMessageWriter {
+    private static final long FLUSH_MS = Long.getLong("store.flushMs", 50);
+    private static final int MAX_BATCH = Integer.getInteger("store.maxBatch", 500);
+
+    /** A row to save, or a flush marker when row is null. */
+    private record Pending(ChatMessageRow row, CompletableFuture<Void> done) {}
+
+    /** One message as queued for a conversation. */
+    record ChatMessageRow(String username, String peerName, ChatMessageEntry entry) {}
+
+    private static final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    static {
+        Thread writer = new Thread(ChatMessageWriter::run, "chat-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private ChatMessageWriter() {}
+
+    /** Queues a message; the future completes when it is on disk, or exceptionally if the write failed. */
+    public static CompletableFuture<Void> save(String username, String peerName, String sender, String receiver,
+                                               String cipher, long timestamp) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        ChatMessageEntry entry = new ChatMessageEntry(sender, receiver, cipher, timestamp);
+        queue.add(new Pending(new ChatMessageRow(username, peerName, entry), done));
+        return done;
+    }
+
+    /**
+     * Writes everything queued so far without waiting for the timer. The future completes once those
+     * rows have been written or have failed; failures are reported on their own save futures.
+     */
+    public static CompletableFuture<Void> flush() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        queue.add(new Pending(null, done));
+        return done;
+    }
+
+    /** Flushes and waits up to timeoutMs, e.g. on logout or when the app closes. */
+    public static void flushAndWait(long timeoutMs) {
+        try {
+            flush().get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            System.err.println("Pending chat messages were not flushed: " + e);
+        }
+    }
+
+    private static void run() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                Pending first = queue.take();
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_MS);
+                boolean flushNow = first.row() == null;
+                while (!flushNow && batch.size() < MAX_BATCH) {
+                    Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    flushNow = next.row() == null;
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /* Appends the batch to the chat log, then forces it to disk once for all of them */
+    private static void write(List<Pending> batch) {
+        Exception[] failures = new Exception[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            ChatMessageRow row = batch.get(i).row();
+            if (row == null) continue;
+            try {
+                ChatLog.append(row.username(), row.peerName(), row.entry());
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to save chat message for " + row.username() + " to " + row.peerName() + ": " + e.getMessage());
+                failures[i] = e;
+            }
+        }
+        Exception forceFailure = null;
+        try {
+            ChatLog.force();
+        } catch (RuntimeException e) {
+            System.err.println("Failed to write chat history to disk: " + e.getMessage());
+            forceFailure = e;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            Exception failure = failures[i] != null ? failures[i] : forceFailure;
+            if (failure != null && pending.row() != null) {
+                pending.done().completeExceptionally(failure);
+            } else {
+                pending.done().complete(null);
+            }
+        }
+    }
+}
@@ -25,6 +25,12 @@ public class ClientApp extends Application {
         stage.show();
     }
 
+    @Override
+    public void stop() {
+        // Don't lose messages still waiting in the write-behind queue
+        ChatMessageWriter.flushAndWait(2000);
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
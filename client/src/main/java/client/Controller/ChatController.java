@@ -1,16 +1,17 @@
 package client.Controller;
 
 import client.ChatClient;
+import client.MessageBus;
 import client.crypto.CryptoUtil;
 import client.crypto.LocalStore;
+import client.crypto.PlaintextCache;
+import client.crypto.SessionKeyCache;
 import javafx.application.Platform;
+import javafx.beans.binding.DoubleBinding;
 import javafx.collections.ListChangeListener;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import javafx.geometry.Pos;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
@@ -20,18 +21,20 @@ import shared.MessageType;
 import java.io.IOException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.sql.SQLException;
-import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.time.format.FormatStyle;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ChatController {
     @FXML private Button backButton;
     @FXML private Label chatWithLabel;
-    @FXML private ListView<String> messageList;
+    @FXML private ListView<ChatLine> messageList;
     @FXML private TextField messageField;
     @FXML private Button sendButton;
 
@@ -41,116 +44,232 @@ public class ChatController {
     private PrivateKey myPrivateKey;
     private PublicKey myPublicKey;
     private PublicKey peerPublicKey;
+    private Map<String, PublicKey> peerKeys;
+    // Peers whose key this view asked the server for; only their PUBLIC_KEY_RESPONSE is accepted
+    private final Set<String> keyRequests = new HashSet<>();
+    private boolean subscribed;
+    private SessionKeyCache sessionKeys;
+    private PlaintextCache plaintext;
     private boolean isInChat = true;
+    // Keyset cursor: the oldest stored row shown so far; older rows are fetched a page at a time
+    private long oldestTimestamp = Long.MAX_VALUE;
+    private long oldestId = Long.MAX_VALUE;
+    private boolean historyExhausted;
+    private boolean loadingOlder;
+    private int generation;
 
-    // Initializes the chat with client and user details
-    public void init(ChatClient chatClient, String username, PrivateKey myPrivateKey,
-                     PublicKey myPublicKey, PublicKey peerPublicKey, String peerName) throws Exception {
+    private static final int HISTORY_PAGE = 50;
+    private static final int HISTORY_BATCH = 10;
+    private static final ExecutorService HISTORY_POOL = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() - 1), r -> {
+                Thread t = new Thread(r, "history-decrypt");
+                t.setDaemon(true);
+                return t;
+            });
+
+    // One-time setup when the view is loaded; the cached view keeps it for every later chat
+    @FXML
+    private void initialize() {
+        sendButton.setOnAction(this::onSendClicked);
+        messageField.setOnAction(this::onSendClicked);
+        setupBubbleFactory();
+
+        messageList.getItems().addListener((ListChangeListener<ChatLine>) change -> {
+            // Follow new messages at the bottom; older history inserted above leaves the scroll position alone
+            while (change.next()) {
+                if (!change.wasAdded() || change.getTo() != change.getList().size()) continue;
+                Platform.runLater(() -> {
+                    int lastIndex = messageList.getItems().size() - 1;
+                    if (lastIndex >= 0) {
+                        messageList.scrollTo(lastIndex);
+                    }
+                });
+            }
+        });
+    }
+
+    /*
+     * Binds the (possibly reused) view to a conversation with peerName. peerKeys is the caller's map of
+     * known public keys; a key the server sends us is added to it so the next chat needn't ask again.
+     */
+    public void init(ChatClient chatClient, String username, PrivateKey myPrivateKey, PublicKey myPublicKey,
+                     Map<String, PublicKey> peerKeys, String peerName) throws Exception {
         this.chatClient = chatClient;
         this.username = username;
         this.myPrivateKey = myPrivateKey;
         this.myPublicKey = myPublicKey;
-        this.peerPublicKey = peerPublicKey;
+        this.peerKeys = peerKeys;
+        this.peerPublicKey = peerKeys.get(peerName);
         this.peerName = peerName;
+        this.sessionKeys = SessionKeyCache.forUser(username, myPrivateKey, myPublicKey);
+        this.plaintext = chatClient.getPlaintextCache();
+
+        // Forget the previous conversation; pages still loading for it are dropped by the generation check
+        generation++;
+        messageList.getItems().clear();
+        messageField.clear();
+        oldestTimestamp = Long.MAX_VALUE;
+        oldestId = Long.MAX_VALUE;
+        historyExhausted = false;
+        loadingOlder = false;
 
         chatWithLabel.setText(peerName);
         sendButton.setDisable(peerPublicKey == null);
 
         if (peerPublicKey == null) {
-            chatClient.send(new Message(MessageType.REQUEST_PUBLIC_KEY, username, peerName, ""));
+            requestPeerKey();
         }
 
         isInChat = true;
-        chatClient.send(new Message(MessageType.CHAT_STATE_UPDATE, username, peerName, "IN_CHAT"));
-        chatClient.setOnMessage(this::onMessageReceived);
+        // The cached view lives as long as the session, so it subscribes once
+        if (!subscribed) {
+            chatClient.getBus().subscribe(MessageBus.Delivery.FX, this::onMessageReceived,
+                    MessageType.PUBLIC_KEY_RESPONSE, MessageType.CHAT_MESSAGE, MessageType.HISTORY_RESPONSE);
+            subscribed = true;
+        }
         loadLocalChatHistory();
-        chatClient.send(new Message(MessageType.HISTORY_REQUEST, username, peerName, ""));
+    }
 
-        Platform.runLater(() -> {
-            int lastIndex = messageList.getItems().size() - 1;
-            if (lastIndex >= 0) {
-                messageList.scrollTo(lastIndex);
-            }
-        });
+    // Shows the latest page of stored history; older pages follow as the user scrolls up
+    private void loadLocalChatHistory() {
+        loadOlderPage();
+    }
 
-        sendButton.setOnAction(this::onSendClicked);
-        messageField.setOnAction(this::onSendClicked);
-        setupBubbleFactory();
+    /*
+     * Tells the server we are in the chat and asks for what it holds for us, once the first stored page is
+     * on screen. Until then nothing is pushed for this peer, so a message saved to the log while that page
+     * was being read cannot also arrive live and show twice.
+     */
+    private void enterChat(int loadGeneration) {
+        if (loadGeneration != generation) return;
+        chatClient.send(new Message(MessageType.CHAT_STATE_UPDATE, username, peerName, "IN_CHAT"));
+        chatClient.send(new Message(MessageType.HISTORY_REQUEST, username, peerName, ""));
+    }
 
-        messageList.getItems().addListener((ListChangeListener<String>) change -> {
-            while (change.next() && change.wasAdded()) {
-                Platform.runLater(() -> {
-                    int lastIndex = messageList.getItems().size() - 1;
-                    if (lastIndex >= 0) {
-                        messageList.scrollTo(lastIndex);
+    /*
+     * Reads the HISTORY_PAGE rows before the cursor on the pool and decrypts them in batches of
+     * HISTORY_BATCH, newest batch first. Batches are inserted above what is shown, in order, as each finishes.
+     */
+    private void loadOlderPage() {
+        if (loadingOlder || historyExhausted) return;
+        loadingOlder = true;
+        int loadGeneration = generation;
+        boolean firstPage = oldestTimestamp == Long.MAX_VALUE;
+        long beforeTimestamp = oldestTimestamp;
+        long beforeId = oldestId;
+        String peer = peerName;
+        CompletableFuture
+                .supplyAsync(() -> LocalStore.loadChatMessagesBefore(username, peer, beforeTimestamp, beforeId, HISTORY_PAGE), HISTORY_POOL)
+                .whenComplete((page, error) -> Platform.runLater(() -> {
+                    if (loadGeneration != generation) return;
+                    if (error != null) {
+                        System.err.println("Could not load chat history with " + peerName + ": " + error.getMessage());
+                        loadingOlder = false;
+                        if (firstPage) enterChat(loadGeneration);
+                        return;
                     }
-                });
-            }
-        });
+                    if (page.size() < HISTORY_PAGE) historyExhausted = true;
+                    if (page.isEmpty()) {
+                        loadingOlder = false;
+                        if (firstPage) enterChat(loadGeneration);
+                        return;
+                    }
+                    oldestTimestamp = page.get(0).timestamp;
+                    oldestId = page.get(0).id;
+                    showOlderPage(page, firstPage, loadGeneration);
+                }));
     }
 
-    // Formatter for timestamps
-    private static final DateTimeFormatter TS_FMT =
-            DateTimeFormatter.ofLocalizedDateTime(FormatStyle.MEDIUM)
-                    .withLocale(Locale.getDefault())
-                    .withZone(ZoneId.systemDefault());
-
-    // Formats epoch time to readable string
-    private String fmt(long epochMillis) {
-        return TS_FMT.format(Instant.ofEpochMilli(epochMillis));
+    private void showOlderPage(List<LocalStore.ChatMessageEntry> page, boolean firstPage, int loadGeneration) {
+        String peer = peerName;
+        SessionKeyCache keys = sessionKeys;
+        CompletableFuture<Void> inserted = CompletableFuture.completedFuture(null);
+        for (int end = page.size(); end > 0; end -= HISTORY_BATCH) {
+            List<LocalStore.ChatMessageEntry> batch = page.subList(Math.max(0, end - HISTORY_BATCH), end);
+            CompletableFuture<List<ChatLine>> decrypted = CompletableFuture.supplyAsync(() -> renderHistory(batch, peer, keys), HISTORY_POOL);
+            inserted = inserted.thenCompose(v -> decrypted).thenAccept(rows -> Platform.runLater(() -> {
+                if (loadGeneration != generation) return;
+                messageList.getItems().addAll(0, rows);
+                if (firstPage) {
+                    messageList.scrollTo(messageList.getItems().size() - 1);
+                } else {
+                    // Keep the row the user was looking at in place
+                    messageList.scrollTo(rows.size());
+                }
+            }));
+        }
+        inserted.whenComplete((v, error) -> Platform.runLater(() -> {
+            if (loadGeneration != generation) return;
+            loadingOlder = false;
+            if (firstPage) enterChat(loadGeneration);
+        }));
     }
 
-    // Loads and displays chat history from local storage
-    private void loadLocalChatHistory() {
-        List<LocalStore.ChatMessageEntry> messages = LocalStore.loadChatMessages(username, peerName);
-        for (LocalStore.ChatMessageEntry msg : messages) {
+    private List<ChatLine> renderHistory(List<LocalStore.ChatMessageEntry> batch, String peer, SessionKeyCache keys) {
+        List<ChatLine> rows = new ArrayList<>(batch.size());
+        for (LocalStore.ChatMessageEntry msg : batch) {
             try {
-                String plain = CryptoUtil.decryptWithPrivateKey(msg.cipher, myPrivateKey);
-                String when = fmt(msg.timestamp);
-                messageList.getItems().add(msg.sender + ": " + plain + "\n" + when);
+                String plain = plaintext.get(peer, msg.timestamp, msg.cipher);
+                if (plain == null) {
+                    plain = keys.decrypt(msg.cipher);
+                    plaintext.put(peer, msg.timestamp, msg.cipher, plain);
+                }
+                rows.add(ChatLine.of(msg.sender, plain, msg.timestamp, username));
             } catch (Exception e) {
-                messageList.getItems().add("ERROR: Could not decrypt message from " + msg.sender + " at " + fmt(msg.timestamp));
+                rows.add(ChatLine.undecryptable(msg.sender, msg.timestamp));
             }
         }
+        return rows;
     }
 
     // Sets up custom cell factory for chat bubble display
     private void setupBubbleFactory() {
-        messageList.setCellFactory(lv -> new ListCell<String>() {
-            @Override
-            protected void updateItem(String item, boolean empty) {
-                super.updateItem(item, empty);
-                if (empty || item == null) {
-                    setGraphic(null);
-                    return;
-                }
+        // One binding shared by every bubble instead of one per updateItem
+        DoubleBinding bubbleMaxWidth = messageList.widthProperty().subtract(20).multiply(0.6);
+        messageList.setCellFactory(lv -> new BubbleCell(bubbleMaxWidth));
+    }
+
+    /* A chat bubble whose nodes are built once; reuse only swaps text, style class and alignment */
+    private final class BubbleCell extends ListCell<ChatLine> {
+        private final Label tsLabel = new Label();
+        private final Label bubble = new Label();
+        private final VBox vbox = new VBox(2, tsLabel, bubble);
+        private ChatLine.Direction shown;
 
-                String[] lines = item.split("\n", 2);
-                String firstLine = lines[0];
-                String tsLine = lines.length > 1 ? lines[1] : "";
-                String[] parts = firstLine.split(": ", 2);
-                String sender = parts[0];
-                String text = parts.length > 1 ? parts[1] : "";
-
-                Label tsLabel = new Label(tsLine);
-                tsLabel.getStyleClass().add("timestamp-label");
-
-                Label bubble = new Label(text);
-                bubble.setWrapText(true);
-                bubble.getStyleClass().add("chat-bubble");
-                bubble.getStyleClass().add(sender.equals(username) ? "me" : "friend");
-                bubble.maxWidthProperty().bind(
-                        messageList.widthProperty().subtract(20).multiply(0.6)
-                );
-                bubble.setMinWidth(Region.USE_COMPUTED_SIZE);
-
-                VBox vbox = new VBox(2, tsLabel, bubble);
-                vbox.setAlignment(sender.equals(username) ? Pos.CENTER_RIGHT : Pos.CENTER_LEFT);
-                vbox.setFillWidth(false);
+        BubbleCell(DoubleBinding bubbleMaxWidth) {
+            tsLabel.getStyleClass().add("timestamp-label");
+            bubble.setWrapText(true);
+            bubble.getStyleClass().add("chat-bubble");
+            bubble.maxWidthProperty().bind(bubbleMaxWidth);
+            bubble.setMinWidth(Region.USE_COMPUTED_SIZE);
+            vbox.setFillWidth(false);
+        }
+
+        @Override
+        protected void updateItem(ChatLine item, boolean empty) {
+            super.updateItem(item, empty);
+            if (empty || item == null) {
+                setGraphic(null);
+                return;
+            }
 
+            if (getIndex() == 0) {
+                loadOlderPage();
+            }
+
+            tsLabel.setText(item.when());
+            bubble.setText(item.text());
+            if (item.direction() != shown) {
+                boolean mine = item.direction() == ChatLine.Direction.OUTGOING;
+                bubble.getStyleClass().removeAll("me", "friend");
+                bubble.getStyleClass().add(mine ? "me" : "friend");
+                vbox.setAlignment(mine ? Pos.CENTER_RIGHT : Pos.CENTER_LEFT);
+                shown = item.direction();
+            }
+            if (getGraphic() != vbox) {
                 setGraphic(vbox);
             }
-        });
+        }
     }
 
     // Handles sending a message
@@ -160,71 +279,101 @@ public class ChatController {
         if (text.isEmpty()) return;
 
         if (peerPublicKey == null) {
-            try {
-                chatClient.send(new Message(MessageType.REQUEST_PUBLIC_KEY, username, peerName, ""));
-            } catch (Exception ex) {
-                System.err.println("Error requesting public key: " + ex.getMessage());
-            }
+            requestPeerKey();
             return;
         }
 
         try {
-            String cipher = CryptoUtil.encryptWithPublicKey(text, peerPublicKey);
-            String localCipher = CryptoUtil.encryptWithPublicKey(text, myPublicKey);
+            // Readable by both ends, so the local copy is the same bytes that were sent
+            String cipher = sessionKeys.encrypt(peerName, peerPublicKey, text);
             long timestamp = System.currentTimeMillis();
 
-            LocalStore.saveChatMessage(username, peerName, username, peerName, localCipher, timestamp);
-            chatClient.send(new Message(MessageType.CHAT_MESSAGE, username, peerName, cipher + "|" + (isInChat ? "IN_CHAT" : "NOT_IN_CHAT")));
+            LocalStore.saveChatMessage(username, peerName, username, peerName, cipher, timestamp);
+            plaintext.put(peerName, timestamp, cipher, text);
+            // Returns at once; while reconnecting the message waits in the send queue
+            chatClient.send(new Message(MessageType.CHAT_MESSAGE, username, peerName, cipher + "|" + (isInChat ? "IN_CHAT" : "NOT_IN_CHAT")))
+                    .exceptionally(ex -> {
+                        Platform.runLater(() -> showSendError(ex));
+                        return null;
+                    });
 
-            String when = fmt(timestamp);
-            messageList.getItems().add(username + ": " + text + "\n" + when);
+            messageList.getItems().add(new ChatLine(username, text, timestamp, ChatLine.Direction.OUTGOING));
             messageField.clear();
         } catch (Exception ex) {
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Send Error");
-            alert.setHeaderText("Failed to send message");
-            alert.setContentText("Error: " + ex.getMessage());
-            alert.showAndWait();
+            showSendError(ex);
         }
     }
 
-    // Processes incoming messages
+    /* The server echoes the requested name as the sender of its PUBLIC_KEY_RESPONSE */
+    private void requestPeerKey() {
+        String peer = peerName;
+        keyRequests.add(peer);
+        chatClient.send(new Message(MessageType.REQUEST_PUBLIC_KEY, username, peer, ""))
+                .exceptionally(ex -> {
+                    System.err.println("Error requesting public key: " + ex.getMessage());
+                    Platform.runLater(() -> keyRequests.remove(peer));
+                    return null;
+                });
+    }
+
+    private void showSendError(Throwable ex) {
+        if (ex instanceof CompletionException && ex.getCause() != null) ex = ex.getCause();
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Send Error");
+        alert.setHeaderText("Failed to send message");
+        alert.setContentText("Error: " + ex.getMessage());
+        alert.showAndWait();
+    }
+
+    /*
+     * Processes incoming messages on the FX thread. The view stays subscribed after the user leaves the chat,
+     * so one that arrives late is still saved to its sender's conversation; only the open chat shows it.
+     */
     private void onMessageReceived(Message msg) {
-        Platform.runLater(() -> {
-            try {
-                switch (msg.getType()) {
-                    case PUBLIC_KEY_RESPONSE -> {
-                        String keyContent = msg.getContent();
-                        if (keyContent == null || keyContent.trim().isEmpty() || keyContent.equals("NO_KEY") || keyContent.equals("USER_NOT_FOUND")) {
-                            Alert alert = new Alert(Alert.AlertType.ERROR);
-                            alert.setTitle("Key Exchange Error");
-                            alert.setHeaderText("Failed to receive public key");
-                            alert.setContentText("The server returned an invalid public key for " + peerName);
-                            alert.showAndWait();
-                            return;
-                        }
-                        this.peerPublicKey = CryptoUtil.decodePublicKey(keyContent);
+        try {
+            switch (msg.getType()) {
+                case PUBLIC_KEY_RESPONSE -> {
+                    String from = msg.getSender();
+                    if (from == null || !keyRequests.remove(from)) return;
+                    boolean current = isInChat && from.equals(peerName);
+                    String keyContent = msg.getContent();
+                    if (keyContent == null || keyContent.trim().isEmpty() || keyContent.equals("NO_KEY") || keyContent.equals("USER_NOT_FOUND")) {
+                        if (!current) return;
+                        Alert alert = new Alert(Alert.AlertType.ERROR);
+                        alert.setTitle("Key Exchange Error");
+                        alert.setHeaderText("Failed to receive public key");
+                        alert.setContentText("The server returned an invalid public key for " + peerName);
+                        alert.showAndWait();
+                        return;
+                    }
+                    PublicKey key = CryptoUtil.decodePublicKey(keyContent);
+                    peerKeys.put(from, key);
+                    if (current && peerPublicKey == null) {
+                        peerPublicKey = key;
                         sendButton.setDisable(false);
                     }
-                    case CHAT_MESSAGE, HISTORY_RESPONSE -> {
-                        String[] parts = msg.getContent().split("\\|", 2);
-                        String cipherB64 = parts[0];
-                        String plain = CryptoUtil.decryptWithPrivateKey(cipherB64, myPrivateKey);
-                        long timestamp = System.currentTimeMillis();
+                }
+                case CHAT_MESSAGE, HISTORY_RESPONSE -> {
+                    String from = msg.getSender();
+                    String[] parts = msg.getContent().split("\\|", 2);
+                    String cipherB64 = parts[0];
+                    long timestamp = System.currentTimeMillis();
 
-                        LocalStore.saveChatMessage(username, peerName, msg.getSender(), msg.getReceiver(), cipherB64, timestamp);
+                    LocalStore.saveChatMessage(username, from, from, msg.getReceiver(), cipherB64, timestamp);
+                    if (!isInChat || !from.equals(peerName)) return;
 
-                        String when = fmt(timestamp);
-                        messageList.getItems().add(msg.getSender() + ": " + plain + "\n" + when);
-                    }
-                    default -> System.out.println("Received message of type: " + msg.getType());
-                }
-            } catch (Exception ex) {
-                if (msg.getType() == MessageType.CHAT_MESSAGE || msg.getType() == MessageType.HISTORY_RESPONSE) {
-                    messageList.getItems().add("ERROR: Could not decrypt message from " + msg.getSender());
+                    String plain = sessionKeys.decrypt(cipherB64);
+                    plaintext.put(peerName, timestamp, cipherB64, plain);
+                    messageList.getItems().add(ChatLine.of(from, plain, timestamp, username));
                 }
+                default -> {}
             }
-        });
+        } catch (Exception ex) {
+            if (isInChat && msg.getSender().equals(peerName)
+                    && (msg.getType() == MessageType.CHAT_MESSAGE || msg.getType() == MessageType.HISTORY_RESPONSE)) {
+                messageList.getItems().add(ChatLine.undecryptable(msg.getSender(), System.currentTimeMillis()));
+            }
+        }
     }
 
     // Handles navigation back to main screen
@@ -233,18 +382,11 @@ public class ChatController {
         try {
             isInChat = false;
             chatClient.send(new Message(MessageType.CHAT_STATE_UPDATE, username, peerName, "NOT_IN_CHAT"));
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/client/MainTabs.fxml"));
-            Parent root = loader.load();
-            MainController mc = loader.getController();
-            mc.init(chatClient, username);
-            Scene scene = new Scene(root, 400, 800);
-            scene.getStylesheets().add(getClass().getResource("/client/styles/main.css").toExternalForm());
-            Stage stage = (Stage) backButton.getScene().getWindow();
-            stage.setScene(scene);
+            MainController.show(chatClient, username, (Stage) backButton.getScene().getWindow());
         } catch (IOException e) {
             System.err.println("Error navigating back: " + e.getMessage());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,65 @@
+package client.Controller;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.Locale;
+
+/** One row of the chat view. The timestamp text is formatted the first time a cell shows the row. */
+public final class ChatLine {
+    public enum Direction { OUTGOING, INCOMING }
+
+    private static final DateTimeFormatter TS_FMT =
+            DateTimeFormatter.ofLocalizedDateTime(FormatStyle.MEDIUM)
+                    .withLocale(Locale.getDefault())
+                    .withZone(ZoneId.systemDefault());
+
+    private final String sender;
+    private final String text;
+    private final long epochMillis;
+    private final Direction direction;
+    private String when;
+
+    public ChatLine(String sender, String text, long epochMillis, Direction direction) {
+        this.sender = sender;
+        this.text = text;
+        this.epochMillis = epochMillis;
+        this.direction = direction;
+    }
+
+    /** A message from sender, outgoing when sender is the logged-in user. */
+    public static ChatLine of(String sender, String text, long epochMillis, String username) {
+        return new ChatLine(sender, text, epochMillis,
+                sender.equals(username) ? Direction.OUTGOING : Direction.INCOMING);
+    }
+
+    /** Placeholder for a message from sender that could not be decrypted. */
+    public static ChatLine undecryptable(String sender, long epochMillis) {
+        return new ChatLine(sender, "Could not decrypt message from " + sender, epochMillis, Direction.INCOMING);
+    }
+
+    public String sender() {
+        return sender;
+    }
+
+    public String text() {
+        return text;
+    }
+
+    public long epochMillis() {
+        return epochMillis;
+    }
+
+    public Direction direction() {
+        return direction;
+    }
+
+    /** The timestamp as shown under the bubble; formatted once, on first use. */
+    public String when() {
+        if (when == null) {
+            when = TS_FMT.format(Instant.ofEpochMilli(epochMillis));
+        }
+        return when;
+    }
+}
@@ -1,6 +1,8 @@
 package client.Controller;
 
 import client.ChatClient;
+import client.MessageBus;
+import client.crypto.KeyMaterial;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -20,6 +22,7 @@ public class LoginController {
     @FXML Label statusLabel;
 
     private ChatClient chatClient;
+    private MessageBus.Subscription replies;
 
     // Initializes the login interface
     @FXML
@@ -51,7 +54,9 @@ public class LoginController {
         // Initialize client connection if not already done
         if (chatClient == null) {
             try {
-                chatClient = new ChatClient("localhost", 12345, this::onMessage);
+                chatClient = new ChatClient("localhost", 12345);
+                replies = chatClient.getBus().subscribe(MessageBus.Delivery.FX, this::onMessage,
+                        MessageType.LOGIN_SUCCESS, MessageType.LOGIN_FAILURE);
             } catch (Exception ex) {
                 statusLabel.setText("Cannot connect to server.");
                 return;
@@ -59,54 +64,36 @@ public class LoginController {
         }
 
         statusLabel.setText("Logging in…");
-        // Send login request in a separate thread
-        new Thread(() -> {
-            try {
-                chatClient.send(new Message(
-                        MessageType.LOGIN, "", u, p));
-            } catch (Exception ex) {
-                Platform.runLater(() -> statusLabel.setText("Network error."));
-            }
-        }).start();
+        // Read or generate this user's keys while the server checks the password
+        KeyMaterial.prepare(u);
+        // Queued for the client's writer thread; the reply arrives on the message bus
+        chatClient.send(new Message(MessageType.LOGIN, "", u, p))
+                .exceptionally(ex -> {
+                    Platform.runLater(() -> statusLabel.setText("Network error."));
+                    return null;
+                });
     }
 
-    // Processes incoming server messages
+    // Processes login replies, on the FX thread
     private void onMessage(Message msg) {
-        Platform.runLater(() -> {
-            switch (msg.getType()) {
-                case LOGIN_SUCCESS -> {
-                    try {
-                        // Load main dashboard
-                        FXMLLoader loader = new FXMLLoader(
-                                getClass().getResource("/client/MainTabs.fxml")
-                        );
-                        Parent dashboard = loader.load();
-
-                        // Initialize main controller
-                        MainController mainCtrl = loader.getController();
-                        mainCtrl.init(chatClient, msg.getReceiver());
-
-                        // Create and configure new scene
-                        Scene scene = new Scene(dashboard, 400, 800);
-                        scene.getStylesheets().add(
-                                getClass().getResource("/client/styles/main.css")
-                                        .toExternalForm()
-                        );
-
-                        // Switch to main scene
-                        Stage stage = (Stage) usernameField.getScene().getWindow();
-                        stage.setScene(scene);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        statusLabel.setText("Error loading main view");
-                    }
-                }
-                case LOGIN_FAILURE -> {
-                    statusLabel.setText(msg.getContent());
+        switch (msg.getType()) {
+            case LOGIN_SUCCESS -> {
+                // The login view is done once it hands over to the main view
+                replies.cancel();
+                try {
+                    // Show the session's main view, loaded once and reused from here on
+                    Stage stage = (Stage) usernameField.getScene().getWindow();
+                    MainController.show(chatClient, msg.getReceiver(), stage);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    statusLabel.setText("Error loading main view");
                 }
-                default -> { /* Ignore other message types */ }
             }
-        });
+            case LOGIN_FAILURE -> {
+                statusLabel.setText(msg.getContent());
+            }
+            default -> { /* Ignore other message types */ }
+        }
     }
 
     // Switches to a new scene with specified FXML and CSS
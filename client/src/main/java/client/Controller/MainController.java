@@ -1,13 +1,11 @@
 package client.Controller;
 
 import client.ChatClient;
-import client.crypto.CryptoUtil;
-import client.crypto.LocalStore;
+import client.MessageBus;
+import client.crypto.KeyMaterial;
+import client.crypto.SessionKeyCache;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
@@ -15,13 +13,12 @@ import shared.Message;
 import shared.MessageType;
 
 import java.io.IOException;
-import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class MainController {
     @FXML private TabPane tabPane;
@@ -40,53 +37,40 @@ public class MainController {
     private final Map<String, PublicKey> friendPubKeyMap = new HashMap<>();
     private PrivateKey myPrivateKey;
     private PublicKey myPublicKey;
+    private CompletableFuture<KeyMaterial.Keys> keys;
+    // Explore results arrive a page at a time; the cursor asks the server for the page after the last one shown
+    private static final int SEARCH_PAGE = 30;
+    private String exploreTerm;
+    private String exploreCursor;
+    private boolean exploreLoading;
+    private boolean exploreAppend;
+
+    /*
+     * Shows the session's main view on stage. The first call loads it and runs init; later calls reuse the
+     * cached scene, whose subscriptions kept it current meanwhile, so returning here sends nothing to the server.
+     */
+    public static void show(ChatClient chatClient, String username, Stage stage) throws IOException {
+        ViewCache.View<MainController> view = chatClient.getViews().get(ViewCache.MAIN, "/client/styles/main.css");
+        if (view.fresh()) {
+            view.controller().init(chatClient, username);
+        }
+        stage.setScene(view.scene());
+    }
 
     /* Initializes the main UI, sets up encryption keys, and loads initial data */
     public void init(ChatClient chatClient, String username) {
         this.chatClient = chatClient;
         this.username = username;
-        chatClient.setOnMessage(this::onMessageReceived);
-
-        try {
-            boolean havePriv = LocalStore.privateKeyExists(username);
-            boolean havePub = LocalStore.exists(username, "publicKey");
-            String pubB64;
-
-            if (havePriv && havePub) {
-                try {
-                    myPrivateKey = CryptoUtil.decodePrivateKey(LocalStore.load(username, "privateKey"));
-                    myPublicKey = CryptoUtil.decodePublicKey(LocalStore.load(username, "publicKey"));
-                    pubB64 = LocalStore.load(username, "publicKey");
-                    CryptoUtil.decodePublicKey(pubB64);
-                } catch (Exception exception) {
-                    System.err.println("Invalid or corrupted key files for user " + username + ", regenerating keys: " + exception.getMessage());
-                    Platform.runLater(() -> new Alert(Alert.AlertType.WARNING,
-                            "Your encryption keys were missing or invalid and have been regenerated. You may not be able to read old messages.").showAndWait());
-                    KeyPair kp = CryptoUtil.generateRSAKeyPair();
-                    myPrivateKey = kp.getPrivate();
-                    myPublicKey = kp.getPublic();
-                    pubB64 = CryptoUtil.encodePublicKey(kp.getPublic());
-                    LocalStore.save(username, "privateKey", CryptoUtil.encodePrivateKey(kp.getPrivate()));
-                    LocalStore.save(username, "publicKey", pubB64);
-                }
-            } else {
-                KeyPair kp = CryptoUtil.generateRSAKeyPair();
-                myPrivateKey = kp.getPrivate();
-                myPublicKey = kp.getPublic();
-                pubB64 = CryptoUtil.encodePublicKey(kp.getPublic());
-                LocalStore.save(username, "privateKey", CryptoUtil.encodePrivateKey(kp.getPrivate()));
-                LocalStore.save(username, "publicKey", pubB64);
-            }
+        // Subscribed for the whole session: friend and request updates keep arriving while another view is shown
+        chatClient.getBus().subscribe(MessageBus.Delivery.FX, this::onMessageReceived,
+                MessageType.CHAT_MESSAGE,
+                MessageType.USER_FOUND, MessageType.USER_NOT_FOUND,
+                MessageType.FRIENDS_LIST, MessageType.PENDING_REQUESTS_LIST,
+                MessageType.FRIEND_ADDED, MessageType.FRIEND_ADD_FAILED);
 
-            chatClient.send(new Message(
-                    MessageType.UPDATE_PUBLIC_KEY,
-                    username,
-                    username,
-                    pubB64
-            ));
-        } catch (Exception exception) {
-            throw new RuntimeException("Key initialization failed for user " + username, exception);
-        }
+        // Keys load (or are generated) in the background; the dashboard is usable meanwhile
+        keys = KeyMaterial.forUser(username);
+        keys.whenComplete((loaded, error) -> Platform.runLater(() -> onKeysReady(loaded, error)));
 
         String[] greetings = {
                 "Welcome back, %s!",
@@ -110,12 +94,85 @@ public class MainController {
         tabPane.tabMaxWidthProperty().bind(tabPane.widthProperty().divide(tabs));
     }
 
+    /* Adopts the loaded keys and publishes the public half to the server */
+    private void onKeysReady(KeyMaterial.Keys loaded, Throwable error) {
+        if (error != null) {
+            System.err.println("Key initialization failed for user " + username + ": " + error.getMessage());
+            new Alert(Alert.AlertType.ERROR,
+                    "Your encryption keys could not be loaded or created. Messages cannot be sent or read.").showAndWait();
+            return;
+        }
+        useKeys(loaded);
+        if (loaded.replacedInvalid()) {
+            new Alert(Alert.AlertType.WARNING,
+                    "Your encryption keys were missing or invalid and have been regenerated. You may not be able to read old messages.").showAndWait();
+        }
+        try {
+            chatClient.send(new Message(
+                    MessageType.UPDATE_PUBLIC_KEY,
+                    username,
+                    username,
+                    loaded.publicKeyBase64()
+            ));
+        } catch (Exception exception) {
+            exception.printStackTrace();
+        }
+    }
+
+    private void useKeys(KeyMaterial.Keys loaded) {
+        if (myPrivateKey == null) {
+            myPrivateKey = loaded.privateKey();
+            myPublicKey = loaded.publicKey();
+        }
+    }
+
+    /* Runs action on the FX thread now, or once the keys have loaded */
+    private void withKeys(Runnable action) {
+        if (myPrivateKey != null) {
+            action.run();
+            return;
+        }
+        keys.thenAccept(loaded -> Platform.runLater(() -> {
+            useKeys(loaded);
+            action.run();
+        }));
+    }
+
     /* Triggers a user search when the explore search button is clicked */
     @FXML
     private void onExploreSearch() {
         String term = exploreField.getText().trim();
         if (!term.isEmpty()) {
-            sendToServer(MessageType.SEARCH_USER, term);
+            exploreTerm = term;
+            exploreCursor = null;
+            exploreAppend = false;
+            requestSearchPage("");
+        }
+    }
+
+    /* Asks for the next page of explore results once the last loaded row is shown */
+    private void loadMoreExplore() {
+        if (exploreCursor != null && !exploreLoading) {
+            exploreAppend = true;
+            requestSearchPage(exploreCursor);
+        }
+    }
+
+    private void requestSearchPage(String cursor) {
+        exploreLoading = true;
+        sendToServer(MessageType.SEARCH_USER, exploreTerm + "\n" + SEARCH_PAGE + "\n" + cursor);
+    }
+
+    /* Shows a page of "name,name,...[\ncursor]" search results */
+    private void showSearchPage(String content) {
+        int newline = content.indexOf('\n');
+        String names = newline < 0 ? content : content.substring(0, newline);
+        exploreCursor = newline < 0 ? null : content.substring(newline + 1);
+        exploreLoading = false;
+        if (exploreAppend) {
+            exploreList.getItems().addAll(names.split(","));
+        } else {
+            exploreList.getItems().setAll(names.split(","));
         }
     }
 
@@ -161,6 +218,19 @@ public class MainController {
         chatList.setPlaceholder(new Label("No messages yet"));
     }
 
+    /* Switches to the chat view for friendName */
+    private void openChat(String friendName) {
+        try {
+            ViewCache.View<ChatController> view = chatClient.getViews().get(ViewCache.CHAT,
+                    "/client/styles/main.css", "/client/styles/chat.css");
+            view.controller().init(chatClient, username, myPrivateKey, myPublicKey, friendPubKeyMap, friendName);
+            Stage stage = (Stage) friendList.getScene().getWindow();
+            stage.setScene(view.scene());
+        } catch (Exception exception) {
+            exception.printStackTrace();
+        }
+    }
+
     /* Sets up custom cells for the friend list with a chat button */
     private void setupFriendCellFactory() {
         friendList.setCellFactory(lv -> new ListCell<String>() {
@@ -175,20 +245,7 @@ public class MainController {
                 chatBtn.setOnAction(actionEvent -> {
                     String friendName = getItem();
                     if (friendName == null) return;
-
-                    try {
-                        FXMLLoader loader = new FXMLLoader(getClass().getResource("/client/ChatView.fxml"));
-                        Parent chatRoot = loader.load();
-                        ChatController chatController = loader.getController();
-                        chatController.init(chatClient, username, myPrivateKey, myPublicKey, friendPubKeyMap.get(friendName), friendName);
-                        Scene chatScene = new Scene(chatRoot, 400, 800);
-                        chatScene.getStylesheets().add(getClass().getResource("/client/styles/main.css").toExternalForm());
-                        chatScene.getStylesheets().add(getClass().getResource("/client/styles/chat.css").toExternalForm());
-                        Stage stage = (Stage) friendList.getScene().getWindow();
-                        stage.setScene(chatScene);
-                    } catch (Exception exception) {
-                        exception.printStackTrace();
-                    }
+                    withKeys(() -> openChat(friendName));
                 });
 
                 Region spacer = new Region();
@@ -210,10 +267,8 @@ public class MainController {
         });
     }
 
+    /* The chat view requests the friend's key itself if friendPubKeyMap does not have it yet */
     private void onChatRequested(String friendName) {
-        if (!friendPubKeyMap.containsKey(friendName)) {
-            sendToServer(MessageType.REQUEST_PUBLIC_KEY, friendName);
-        }
         loadChat(friendName);
     }
 
@@ -261,6 +316,9 @@ public class MainController {
                         box.getChildren().add(addBtn);
                     }
                     setGraphic(box);
+                    if (getIndex() == getListView().getItems().size() - 1) {
+                        loadMoreExplore();
+                    }
                 }
             }
         });
@@ -318,12 +376,16 @@ public class MainController {
         });
     }
 
+    private SessionKeyCache sessionKeys() {
+        return SessionKeyCache.forUser(username, myPrivateKey, myPublicKey);
+    }
+
     /* Sends an encrypted chat message to the specified recipient */
     private void sendEncryptedChat(String recipientUsername, String messageText) {
         PublicKey pub = friendPubKeyMap.get(recipientUsername);
-        if (pub == null) return;
+        if (pub == null || myPrivateKey == null) return;
         try {
-            String cipher = CryptoUtil.encryptWithPublicKey(messageText, pub);
+            String cipher = sessionKeys().encrypt(recipientUsername, pub, messageText);
             chatClient.send(new Message(
                     MessageType.CHAT_MESSAGE,
                     "", username,
@@ -343,90 +405,83 @@ public class MainController {
         }
     }
 
-    /* Handles incoming server messages and updates the UI accordingly */
+    /* Handles incoming server messages, on the FX thread, and updates the UI accordingly */
     private void onMessageReceived(Message message) {
-        Platform.runLater(() -> {
-            switch (message.getType()) {
-                case PUBLIC_KEY_RESPONSE -> {
+        switch (message.getType()) {
+            case CHAT_MESSAGE -> {
+                String content = message.getContent();
+                int idx = content.indexOf(':');
+                if (idx < 0) break;
+                String from = message.getSender();
+                String cipherB64 = content.substring(idx + 1);
+                withKeys(() -> {
                     try {
-                        friendPubKeyMap.put(
-                                message.getSender(),
-                                CryptoUtil.decodePublicKey(message.getContent())
-                        );
-                    } catch (Exception ignored) {}
-                }
-                case CHAT_MESSAGE -> {
-                    String content = message.getContent();
-                    int idx = content.indexOf(':');
-                    if (idx < 0) break;
-                    String from = message.getSender();
-                    String cipherB64 = content.substring(idx + 1);
-                    try {
-                        String plain = CryptoUtil.decryptWithPrivateKey(cipherB64, myPrivateKey);
+                        String plain = sessionKeys().decrypt(cipherB64);
                         chatList.getItems().add(from + ": " + plain);
                     } catch (Exception ignored) {}
+                });
+            }
+            case USER_FOUND -> showSearchPage(message.getContent());
+            case USER_NOT_FOUND -> {
+                if (!exploreAppend) exploreList.getItems().clear();
+                exploreCursor = null;
+                exploreLoading = false;
+            }
+            case FRIENDS_LIST -> {
+                String content = message.getContent().trim();
+                if (content.isEmpty()) {
+                    friendList.getItems().clear();
+                } else {
+                    // The server sends friends in no particular order
+                    String[] friends = content.split(",");
+                    Arrays.sort(friends, String.CASE_INSENSITIVE_ORDER);
+                    friendList.getItems().setAll(friends);
                 }
-                case USER_FOUND -> exploreList.getItems().setAll(message.getContent().split(","));
-                case USER_NOT_FOUND -> exploreList.getItems().clear();
-                case FRIENDS_LIST -> {
-                    String content = message.getContent().trim();
-                    if (content.isEmpty()) {
-                        friendList.getItems().clear();
-                    } else {
-                        friendList.getItems().setAll(content.split(","));
-                    }
-                }
-                case PENDING_REQUESTS_LIST -> {
-                    String content = message.getContent();
-                    String incPart = content.split(";", 2)[0];
-                    int colon = incPart.indexOf(':');
-                    String list;
-                    if (colon >= 0 && colon + 1 < incPart.length()) {
-                        list = incPart.substring(colon + 1);
-                    } else {
-                        list = "";
-                    }
-                    List<String> items;
-                    if (list.isEmpty()) {
-                        items = List.of();
-                    } else {
-                        items = List.of(list.split(","));
-                    }
-
-                    requestList.getItems().setAll(items);
-                }
-                case FRIEND_ADDED -> {
-                    String newFriend = message.getContent().trim();
-                    requestList.getItems().remove(newFriend);
-                    List<String> sorted = new ArrayList<>(friendList.getItems());
-                    sorted.add(newFriend);
-                    sorted.sort(String.CASE_INSENSITIVE_ORDER);
-                    friendList.getItems().setAll(sorted);
+            }
+            case PENDING_REQUESTS_LIST -> {
+                String content = message.getContent();
+                String incPart = content.split(";", 2)[0];
+                int colon = incPart.indexOf(':');
+                String list;
+                if (colon >= 0 && colon + 1 < incPart.length()) {
+                    list = incPart.substring(colon + 1);
+                } else {
+                    list = "";
                 }
-                case FRIEND_ADD_FAILED -> {
-                    new Alert(Alert.AlertType.ERROR,
-                            "Could not accept request:\n" + message.getContent())
-                            .showAndWait();
+                List<String> items;
+                if (list.isEmpty()) {
+                    items = List.of();
+                } else {
+                    items = List.of(list.split(","));
                 }
-                default -> {}
+
+                requestList.getItems().setAll(items);
             }
-        });
+            case FRIEND_ADDED -> {
+                String newFriend = message.getContent().trim();
+                requestList.getItems().remove(newFriend);
+                List<String> sorted = new ArrayList<>(friendList.getItems());
+                sorted.add(newFriend);
+                sorted.sort(String.CASE_INSENSITIVE_ORDER);
+                friendList.getItems().setAll(sorted);
+            }
+            case FRIEND_ADD_FAILED -> {
+                new Alert(Alert.AlertType.ERROR,
+                        "Could not accept request:\n" + message.getContent())
+                        .showAndWait();
+            }
+            default -> {}
+        }
     }
 
     /* Navigates to the settings screen */
     @FXML
     private void onSettingsClicked() {
         try {
-            URL fxmlUrl = getClass().getResource("/client/Settings.fxml");
-            FXMLLoader loader = new FXMLLoader(fxmlUrl);
-            Parent root = loader.load();
-            SettingsController settingsController = loader.getController();
-            settingsController.init(chatClient, username);
-            Scene scene = new Scene(root, 400, 800);
-            URL cssUrl = getClass().getResource("/client/styles/main.css");
-            if (cssUrl != null) scene.getStylesheets().add(cssUrl.toExternalForm());
+            ViewCache.View<SettingsController> view = chatClient.getViews().get(ViewCache.SETTINGS, "/client/styles/main.css");
+            view.controller().init(chatClient, username);
             Stage stage = (Stage) settingsButton.getScene().getWindow();
-            stage.setScene(scene);
+            stage.setScene(view.scene());
         } catch (IOException exception) {
             exception.printStackTrace();
         }
@@ -1,6 +1,7 @@
 package client.Controller;
 
 import client.ChatClient;
+import client.MessageBus;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -50,7 +51,9 @@ public class RegisterController {
 
         if (chatClient == null) {
             try {
-                chatClient = new ChatClient("localhost", 12345, this::onMessage);
+                chatClient = new ChatClient("localhost", 12345);
+                chatClient.getBus().subscribe(MessageBus.Delivery.FX, this::onMessage,
+                        MessageType.REGISTER_SUCCESS, MessageType.REGISTER_FAILURE);
             } catch (Exception ex) {
                 statusLabel.setText("Cannot connect.");
                 return;
@@ -58,32 +61,24 @@ public class RegisterController {
         }
 
         statusLabel.setText("Registering…");
-        new Thread(() -> {
-            try {
-                chatClient.send(new Message(
-                        MessageType.REGISTER, "", username, password
-                ));
-            } catch (Exception ex) {
-                Platform.runLater(() ->
-                        statusLabel.setText("Network error.")
-                );
-            }
-        }).start();
+        chatClient.send(new Message(MessageType.REGISTER, "", username, password))
+                .exceptionally(ex -> {
+                    Platform.runLater(() -> statusLabel.setText("Network error."));
+                    return null;
+                });
     }
 
-    /* Processes server responses for registration attempts */
+    /* Processes server responses for registration attempts, on the FX thread */
     private void onMessage(Message msg) {
-        Platform.runLater(() -> {
-            if (msg.getType() == MessageType.REGISTER_SUCCESS) {
-                try {
-                    onShowLogin();
-                } catch (Exception e) {
-                    statusLabel.setText("Error loading login.");
-                }
-            } else if (msg.getType() == MessageType.REGISTER_FAILURE) {
-                statusLabel.setText(msg.getContent());
+        if (msg.getType() == MessageType.REGISTER_SUCCESS) {
+            try {
+                onShowLogin();
+            } catch (Exception e) {
+                statusLabel.setText("Error loading login.");
             }
-        });
+        } else if (msg.getType() == MessageType.REGISTER_FAILURE) {
+            statusLabel.setText(msg.getContent());
+        }
     }
 
     /* Loads and switches to a new scene with specified FXML and CSS files */
@@ -1,6 +1,5 @@
 package client.Controller;
 
-import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -10,8 +9,8 @@ import javafx.stage.Stage;
 import shared.Message;
 import shared.MessageType;
 import client.ChatClient;
+import client.MessageBus;
 import java.io.IOException;
-import java.net.URL;
 
 public class SettingsController {
     @FXML private Button backButton;
@@ -20,29 +19,28 @@ public class SettingsController {
 
     private ChatClient chatClient;
     private String username;
+    private boolean subscribed;
 
-    /* Initializes the settings controller with client and user details */
+    /* Binds the (possibly reused) settings view to the session; typed passwords are not kept between visits */
     public void init(ChatClient client, String user) {
         this.chatClient = client;
         this.username = user;
-        chatClient.setOnMessage(this::onServerMessage);
+        oldPasswordField.clear();
+        newPasswordField.clear();
+        // The cached view lives as long as the session, so it subscribes once
+        if (!subscribed) {
+            chatClient.getBus().subscribe(MessageBus.Delivery.FX, this::onServerMessage,
+                    MessageType.CHANGE_PASSWORD_SUCCESS, MessageType.CHANGE_PASSWORD_FAILURE,
+                    MessageType.LOGOUT_SUCCESS);
+            subscribed = true;
+        }
     }
 
     /* Navigates back to the main application interface */
     @FXML
     private void onBackClicked() {
         try {
-            URL fxml = getClass().getResource("/client/MainTabs.fxml");
-            FXMLLoader loader = new FXMLLoader(fxml);
-            Parent root = loader.load();
-            MainController mc = loader.getController();
-            mc.init(chatClient, username);
-            Scene scene = new Scene(root, 400, 800);
-            scene.getStylesheets().add(
-                    getClass().getResource("/client/styles/main.css").toExternalForm()
-            );
-            Stage stage = (Stage) backButton.getScene().getWindow();
-            stage.setScene(scene);
+            MainController.show(chatClient, username, (Stage) backButton.getScene().getWindow());
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -73,48 +71,46 @@ public class SettingsController {
         ));
     }
 
-    /* Processes server responses for settings-related actions */
+    /* Processes server responses for settings-related actions, on the FX thread */
     private void onServerMessage(Message msg) {
-        Platform.runLater(() -> {
-            switch (msg.getType()) {
-                case CHANGE_PASSWORD_SUCCESS -> {
-                    Alert info = new Alert(Alert.AlertType.INFORMATION);
-                    info.setTitle("Password Changed");
-                    info.setHeaderText(null);
-                    info.setContentText(msg.getContent());
-                    info.showAndWait();
-                    onLogoutClicked();
-                }
-                case CHANGE_PASSWORD_FAILURE -> {
-                    Alert err = new Alert(Alert.AlertType.ERROR);
-                    err.setTitle("Change Password Failed");
-                    err.setHeaderText(null);
-                    err.setContentText(msg.getContent());
-                    err.showAndWait();
-                }
-                case LOGOUT_SUCCESS -> {
-                    try {
-                        chatClient.close();
-                    } catch (Exception ignored) {}
-                    Parent loginRoot;
-                    try {
-                        loginRoot = FXMLLoader.load(
-                                getClass().getResource("/client/Login.fxml")
-                        );
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                    Scene scene = new Scene(loginRoot, 400, 800);
-                    scene.getStylesheets().add(
-                            getClass().getResource("/client/styles/login.css")
-                                    .toExternalForm()
+        switch (msg.getType()) {
+            case CHANGE_PASSWORD_SUCCESS -> {
+                Alert info = new Alert(Alert.AlertType.INFORMATION);
+                info.setTitle("Password Changed");
+                info.setHeaderText(null);
+                info.setContentText(msg.getContent());
+                info.showAndWait();
+                onLogoutClicked();
+            }
+            case CHANGE_PASSWORD_FAILURE -> {
+                Alert err = new Alert(Alert.AlertType.ERROR);
+                err.setTitle("Change Password Failed");
+                err.setHeaderText(null);
+                err.setContentText(msg.getContent());
+                err.showAndWait();
+            }
+            case LOGOUT_SUCCESS -> {
+                try {
+                    chatClient.close();
+                } catch (Exception ignored) {}
+                Parent loginRoot;
+                try {
+                    loginRoot = FXMLLoader.load(
+                            getClass().getResource("/client/Login.fxml")
                     );
-                    Stage stage = (Stage) backButton.getScene().getWindow();
-                    stage.setScene(scene);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
-                default -> {}
+                Scene scene = new Scene(loginRoot, 400, 800);
+                scene.getStylesheets().add(
+                        getClass().getResource("/client/styles/login.css")
+                                .toExternalForm()
+                );
+                Stage stage = (Stage) backButton.getScene().getWindow();
+                stage.setScene(scene);
             }
-        });
+            default -> {}
+        }
     }
 
     /* Initiates logout process by sending a logout message to the server */
@@ -0,0 +1,45 @@
+package client.Controller;
+
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Scenes and controllers of the logged-in views, loaded from FXML the first time each is shown and reused
+ * for the rest of the session. One cache belongs to one ChatClient, so logging out drops it.
+ */
+public final class ViewCache {
+    public static final String MAIN = "/client/MainTabs.fxml";
+    public static final String CHAT = "/client/ChatView.fxml";
+    public static final String SETTINGS = "/client/Settings.fxml";
+
+    /** A loaded view; fresh is true only the first time it is handed out, when its controller needs init. */
+    public record View<C>(Scene scene, C controller, boolean fresh) {}
+
+    private final Map<String, View<?>> views = new HashMap<>();
+
+    /** The cached view for fxml, loading it into a 400x800 scene with the given stylesheets on first use. */
+    @SuppressWarnings("unchecked")
+    public <C> View<C> get(String fxml, String... stylesheets) throws IOException {
+        View<C> cached = (View<C>) views.get(fxml);
+        if (cached != null) return cached;
+
+        FXMLLoader loader = new FXMLLoader(getClass().getResource(fxml));
+        Parent root = loader.load();
+        Scene scene = new Scene(root, 400, 800);
+        for (String stylesheet : stylesheets) {
+            scene.getStylesheets().add(getClass().getResource(stylesheet).toExternalForm());
+        }
+        View<C> view = new View<>(scene, loader.getController(), false);
+        views.put(fxml, view);
+        return new View<>(scene, view.controller(), true);
+    }
+
+    public void clear() {
+        views.clear();
+    }
+}
@@ -0,0 +1,127 @@
+package client;
+
+import javafx.application.Platform;
+import shared.Message;
+import shared.MessageType;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Routes messages from the server to every handler subscribed to their type. A handler is called either on
+ * the FX thread or on the bus's background thread, in arrival order either way. Messages bound for the FX
+ * thread queue up and are handed over in one Platform.runLater for as many as have arrived, at most
+ * bus.fxBatch per run, so a burst from the server does not flood the FX event queue.
+ */
+public final class MessageBus {
+    private static final int FX_BATCH = Integer.getInteger("bus.fxBatch", 256);
+
+    public enum Delivery { FX, BACKGROUND }
+
+    /** A handler's registration; cancel stops delivery, including of messages already queued for it. */
+    public interface Subscription {
+        void cancel();
+    }
+
+    private final Map<MessageType, List<Subscriber>> subscribers = new EnumMap<>(MessageType.class);
+    private final Queue<Runnable> fxQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean fxScheduled = new AtomicBoolean();
+    private final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "message-bus");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public MessageBus() {
+        // Every list exists up front, so the map itself is never modified once other threads can see it
+        for (MessageType type : MessageType.values()) {
+            subscribers.put(type, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    /** Calls handler with every message of the given types, on the thread chosen by delivery. */
+    public Subscription subscribe(Delivery delivery, Consumer<Message> handler, MessageType type, MessageType... more) {
+        Subscriber subscriber = new Subscriber(delivery, handler);
+        subscribers.get(type).add(subscriber);
+        for (MessageType t : more) {
+            subscribers.get(t).add(subscriber);
+        }
+        return () -> {
+            subscriber.cancelled = true;
+            for (List<Subscriber> list : subscribers.values()) {
+                list.remove(subscriber);
+            }
+        };
+    }
+
+    /** Hands msg to its subscribers; called by the connection's reader thread. */
+    void publish(Message msg) {
+        List<Subscriber> list = subscribers.get(msg.getType());
+        if (list.isEmpty()) {
+            System.out.println("No handler for " + msg.getType() + " from " + msg.getSender());
+            return;
+        }
+        boolean toFx = false;
+        for (Subscriber subscriber : list) {
+            if (subscriber.delivery == Delivery.FX) {
+                fxQueue.add(() -> subscriber.deliver(msg));
+                toFx = true;
+            } else {
+                background.execute(() -> subscriber.deliver(msg));
+            }
+        }
+        if (toFx && fxScheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::drainFx);
+        }
+    }
+
+    /*
+     * Runs up to FX_BATCH queued deliveries. The flag is cleared first: a handler that opens a modal dialog
+     * runs a nested event loop, and messages arriving meanwhile must schedule a run of their own.
+     */
+    private void drainFx() {
+        fxScheduled.set(false);
+        Runnable delivery;
+        for (int n = 0; n < FX_BATCH && (delivery = fxQueue.poll()) != null; n++) {
+            delivery.run();
+        }
+        if (!fxQueue.isEmpty() && fxScheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::drainFx);
+        }
+    }
+
+    /** Stops the background thread; messages still queued for FX handlers are dropped. */
+    void shutdown() {
+        background.shutdown();
+        fxQueue.clear();
+    }
+
+    private static final class Subscriber {
+        final Delivery delivery;
+        final Consumer<Message> handler;
+        volatile boolean cancelled;
+
+        Subscriber(Delivery delivery, Consumer<Message> handler) {
+            this.delivery = delivery;
+            this.handler = handler;
+        }
+
+        void deliver(Message msg) {
+            if (cancelled) return;
+            try {
+                handler.accept(msg);
+            } catch (RuntimeException e) {
+                System.err.println("Handler for " + msg.getType() + " failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+}
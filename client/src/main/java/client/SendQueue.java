@@ -0,0 +1,135 @@
+package client;
+
+import shared.Message;
+import shared.MessageStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Messages waiting to go out to the server, written by one daemon thread so callers (mostly the FX thread)
+ * never block on the socket. The writer takes whatever has queued up, at most send.maxBatch messages, and
+ * writes them with a single flush. While the connection is down the queue doubles as the offline buffer:
+ * it holds up to send.bufferMessages messages, the batch that failed included, and they go out in order
+ * once {@link ChatClient} has reconnected. A batch cut off mid-write is sent again whole; every message
+ * carries a client id, increasing in queue order, and the server skips ids its session has already
+ * handled, so nothing is lost and nothing is acted on twice.
+ */
+final class SendQueue {
+    private static final int BUFFER_MESSAGES = Integer.getInteger("send.bufferMessages", 512);
+    private static final int MAX_BATCH = Integer.getInteger("send.maxBatch", 64);
+
+    private record Pending(Message msg, CompletableFuture<Void> done) {
+        // A marker with no message: completes once everything queued before it is written
+        boolean isMarker() {
+            return msg == null;
+        }
+    }
+
+    private final ChatClient client;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>(BUFFER_MESSAGES);
+    private final Thread writer;
+    private volatile boolean closed;
+    private int lastClientId;
+
+    SendQueue(ChatClient client) {
+        this.client = client;
+        this.writer = new Thread(this::run, "chat-sender");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Queues msg; the future completes once it has been flushed to the server. */
+    CompletableFuture<Void> send(Message msg) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Connection closed"));
+        }
+        Pending pending = new Pending(msg, new CompletableFuture<>());
+        // Numbered and queued together so ids increase in the order messages are written
+        synchronized (this) {
+            msg.setClientId(++lastClientId);
+            if (!queue.offer(pending)) {
+                return CompletableFuture.failedFuture(new IOException(
+                        "Not connected; " + BUFFER_MESSAGES + " messages are already waiting to be sent"));
+            }
+        }
+        return pending.done();
+    }
+
+    /* Lets an idle writer notice a dropped connection and reconnect without waiting for the next send */
+    void wake() {
+        queue.offer(new Pending(null, new CompletableFuture<>()));
+    }
+
+    /** Waits up to timeoutMs for everything queued so far to be written, then stops the writer. */
+    void close(long timeoutMs) {
+        Pending marker = new Pending(null, new CompletableFuture<>());
+        if (queue.offer(marker)) {
+            try {
+                marker.done().get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                System.err.println("Gave up waiting for " + queue.size() + " unsent messages");
+            } catch (Exception e) {
+                System.err.println("Error while sending queued messages: " + e.getMessage());
+            }
+        }
+        closed = true;
+        writer.interrupt();
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                List<Message> messages = new ArrayList<>(batch.size());
+                for (Pending pending : batch) {
+                    if (!pending.isMarker()) messages.add(pending.msg());
+                }
+                write(messages);
+                for (Pending pending : batch) {
+                    pending.done().complete(null);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException | IOException e) {
+            // Closed: nothing queued will be written any more
+            batch.addAll(queue);
+            queue.clear();
+            IOException error = new IOException("Connection closed");
+            for (Pending pending : batch) {
+                pending.done().completeExceptionally(error);
+            }
+        }
+    }
+
+    /*
+     * Writes messages with one flush, reconnecting and starting over as often as it takes. An empty list
+     * still waits for a connection, which is how wake() gets a dropped one re-established.
+     */
+    private void write(List<Message> messages) throws InterruptedException, IOException {
+        while (true) {
+            MessageStream out = client.connection();
+            if (messages.isEmpty()) return;
+            try {
+                for (Message msg : messages) {
+                    out.write(msg);
+                }
+                out.flush();
+                for (Message msg : messages) {
+                    client.sent(msg);
+                }
+                return;
+            } catch (IOException e) {
+                client.connectionLost(out, e);
+            }
+        }
+    }
+}
@@ -1,13 +1,62 @@
 package client.crypto;
 
 import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
+import java.security.interfaces.RSAKey;
 import java.security.spec.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class CryptoUtil {
     private static final String RSA_ALGO = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
     private static final int KEY_SIZE = 2048;
+    private static final String AES_ALGO = "AES/GCM/NoPadding";
+    private static final int AES_KEY_BITS = 256;
+    private static final int GCM_IV_BYTES = 12;
+    private static final int GCM_TAG_BITS = 128;
+    private static final int FINGERPRINT_BYTES = 8;
+    private static final byte[] ENVELOPE_MAGIC = {'E', 'N', 'V', '1'};
+    private static final byte[] SESSION_MAGIC = {'E', 'N', 'V', '2'};
+    private static final int KEY_ID_BYTES = 8;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int PUBLIC_KEY_CACHE_SIZE = 256;
+
+    // Cipher, KeyFactory and MessageDigest are not thread-safe but are costly to look up, so each thread keeps its own
+    private static final ThreadLocal<Cipher> RSA = ThreadLocal.withInitial(() -> instance(() -> Cipher.getInstance(RSA_ALGO)));
+    private static final ThreadLocal<Cipher> AES = ThreadLocal.withInitial(() -> instance(() -> Cipher.getInstance(AES_ALGO)));
+    private static final ThreadLocal<KeyFactory> RSA_KEYS = ThreadLocal.withInitial(() -> instance(() -> KeyFactory.getInstance("RSA")));
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> instance(() -> MessageDigest.getInstance("SHA-256")));
+
+    // Friends' keys arrive as the same Base64 strings again and again; least recently used entries go first
+    private static final Map<String, PublicKey> PUBLIC_KEYS = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PublicKey> eldest) {
+            return size() > PUBLIC_KEY_CACHE_SIZE;
+        }
+    };
+
+    private interface Factory<T> {
+        T create() throws GeneralSecurityException;
+    }
+
+    private static <T> T instance(Factory<T> factory) {
+        try {
+            return factory.create();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Crypto provider is missing a required algorithm", e);
+        }
+    }
 
     /** Generate an RSA key pair. */
     public static KeyPair generateRSAKeyPair() throws GeneralSecurityException {
@@ -21,52 +70,81 @@ public class CryptoUtil {
         return Base64.getEncoder().encodeToString(pk.getEncoded());
     }
 
-    /** Decode a Base64 string to PublicKey with robust error handling. */
+    /** Decode a Base64 string to PublicKey; repeated strings are served from a small cache. */
     public static PublicKey decodePublicKey(String b64) throws GeneralSecurityException {
         if (b64 == null || b64.trim().isEmpty()) {
             throw new IllegalArgumentException("Public key string is null or empty");
         }
-        try {
-            // First try standard Base64 decoding
-            byte[] data = Base64.getDecoder().decode(b64);
-            X509EncodedKeySpec spec = new X509EncodedKeySpec(data);
-            return KeyFactory.getInstance("RSA").generatePublic(spec);
-        } catch (IllegalArgumentException e) {
-            System.out.println("Standard Base64 failed, trying URL-safe Base64");
-            try {
-                // If standard Base64 fails, try URL-safe Base64
-                byte[] data = Base64.getUrlDecoder().decode(b64);
-                X509EncodedKeySpec spec = new X509EncodedKeySpec(data);
-                return KeyFactory.getInstance("RSA").generatePublic(spec);
-            } catch (IllegalArgumentException e2) {
-                System.out.println("URL-safe Base64 failed, trying to clean the string");
-                // If both fail, try cleaning the string first
-                String cleaned = cleanBase64String(b64);
-                System.out.println("Original: " + b64.substring(0, Math.min(50, b64.length())));
-                System.out.println("Cleaned:  " + cleaned.substring(0, Math.min(50, cleaned.length())));
-
-                byte[] data = Base64.getDecoder().decode(cleaned);
-                X509EncodedKeySpec spec = new X509EncodedKeySpec(data);
-                return KeyFactory.getInstance("RSA").generatePublic(spec);
-            }
+        synchronized (PUBLIC_KEYS) {
+            PublicKey cached = PUBLIC_KEYS.get(b64);
+            if (cached != null) return cached;
+        }
+        byte[] data = Base64.getDecoder().decode(cleanBase64String(b64));
+        PublicKey key = RSA_KEYS.get().generatePublic(new X509EncodedKeySpec(data));
+        synchronized (PUBLIC_KEYS) {
+            PUBLIC_KEYS.put(b64, key);
         }
+        return key;
     }
 
-    /** Clean and normalize a Base64 string. */
+    /**
+     * Normalize standard, URL-safe, unpadded or whitespace-broken Base64 to padded standard Base64 in one
+     * pass. Returns the input itself when it is already clean; throws only for characters outside both
+     * alphabets or a length no Base64 string can have.
+     */
     private static String cleanBase64String(String base64String) {
-        if (base64String == null || base64String.trim().isEmpty()) {
+        if (base64String == null || base64String.isEmpty()) {
             throw new IllegalArgumentException("Base64 string is null or empty");
         }
-        // Remove any whitespace and newlines
-        String cleaned = base64String.replaceAll("\\s+", "");
-        // Convert URL-safe characters to standard Base64
-        cleaned = cleaned.replace('-', '+').replace('_', '/');
-        // Add padding if necessary
-        int padding = 4 - (cleaned.length() % 4);
-        if (padding != 4) {
-            cleaned += "=".repeat(padding);
+        int length = base64String.length();
+        char[] out = null;
+        int n = 0;
+        int padding = 0;
+        for (int i = 0; i < length; i++) {
+            char c = base64String.charAt(i);
+            char mapped;
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '+' || c == '/') {
+                mapped = c;
+            } else if (c == '-') {
+                mapped = '+';
+            } else if (c == '_') {
+                mapped = '/';
+            } else if (c == '=') {
+                // Padding is recounted at the end, so it never forces a copy
+                padding++;
+                continue;
+            } else if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                mapped = 0;
+            } else {
+                throw new IllegalArgumentException("Illegal Base64 character at " + i);
+            }
+            if (mapped != 0 && padding > 0) {
+                throw new IllegalArgumentException("Base64 data after padding at " + i);
+            }
+            if (mapped == c && out == null) {
+                n++;
+                continue;
+            }
+            // First change: copy the clean prefix, then keep building from here
+            if (out == null) {
+                out = new char[length + 3];
+                base64String.getChars(0, n, out, 0);
+            }
+            if (mapped != 0) out[n++] = mapped;
+        }
+        if (n % 4 == 1) {
+            throw new IllegalArgumentException("Truncated Base64 data");
+        }
+        int padded = (n + 3) & ~3;
+        if (out == null && padding == padded - n) {
+            return base64String;
         }
-        return cleaned;
+        if (out == null) {
+            out = new char[padded];
+            base64String.getChars(0, n, out, 0);
+        }
+        Arrays.fill(out, n, padded, '=');
+        return new String(out, 0, padded);
     }
 
     /** Encode a PrivateKey to Base64 (PKCS8). */
@@ -74,76 +152,203 @@ public class CryptoUtil {
         return Base64.getEncoder().encodeToString(pk.getEncoded());
     }
 
-    /** Decode a Base64 string to PrivateKey with robust error handling. */
+    /** Decode a Base64 string to PrivateKey (PKCS8). */
     public static PrivateKey decodePrivateKey(String b64) throws GeneralSecurityException {
         if (b64 == null || b64.trim().isEmpty()) {
             throw new IllegalArgumentException("Private key string is null or empty");
         }
-        try {
-            // First try standard Base64 decoding
-            byte[] data = Base64.getDecoder().decode(b64);
-            PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(data);
-            return KeyFactory.getInstance("RSA").generatePrivate(spec);
-        } catch (IllegalArgumentException e) {
-            System.out.println("Standard Base64 failed, trying URL-safe Base64: " + e.getMessage());
-            try {
-                // If standard Base64 fails, try URL-safe Base64
-                byte[] data = Base64.getUrlDecoder().decode(b64);
-                PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(data);
-                return KeyFactory.getInstance("RSA").generatePrivate(spec);
-            } catch (IllegalArgumentException e2) {
-                System.out.println("URL-safe Base64 failed, trying to clean the string: " + e2.getMessage());
-                // If both fail, try cleaning the string first
-                String cleaned = cleanBase64String(b64);
-                System.out.println("Original: " + b64.substring(0, Math.min(50, b64.length())));
-                System.out.println("Cleaned:  " + cleaned.substring(0, Math.min(50, cleaned.length())));
-
-                byte[] data = Base64.getDecoder().decode(cleaned);
-                PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(data);
-                return KeyFactory.getInstance("RSA").generatePrivate(spec);
-            }
-        }
+        byte[] data = Base64.getDecoder().decode(cleanBase64String(b64));
+        return RSA_KEYS.get().generatePrivate(new PKCS8EncodedKeySpec(data));
     }
 
     /** Encrypt plaintext (UTF-8) with RSA public key. Returns Base64 ciphertext. */
     public static String encryptWithPublicKey(String plain, PublicKey pub) throws GeneralSecurityException {
-        Cipher cipher = Cipher.getInstance(RSA_ALGO);
+        Cipher cipher = RSA.get();
         cipher.init(Cipher.ENCRYPT_MODE, pub);
-        byte[] ct = cipher.doFinal(plain.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        byte[] ct = cipher.doFinal(plain.getBytes(StandardCharsets.UTF_8));
         return Base64.getEncoder().encodeToString(ct);
     }
 
-    /** Decrypt Base64 ciphertext with RSA private key. Returns UTF-8 plaintext. */
-    public static String decryptWithPrivateKey(String b64cipher, PrivateKey priv) throws GeneralSecurityException {
-        if (b64cipher == null || b64cipher.trim().isEmpty()) {
-            throw new IllegalArgumentException("Ciphertext is null or empty");
+    /**
+     * Encrypt plaintext (UTF-8) once for several recipients. The body is sealed with a fresh AES-256-GCM
+     * key and only that key is RSA-wrapped, once per recipient, so the text can be any length.
+     * Envelope layout: "ENV1", recipient count, then per recipient an 8-byte key fingerprint, the wrapped
+     * key length (2 bytes) and the wrapped key, then the 12-byte IV and the GCM ciphertext. Everything
+     * before the IV is authenticated as associated data. Returns Base64.
+     */
+    public static String encryptForRecipients(String plain, PublicKey... recipients) throws GeneralSecurityException {
+        SecretKey contentKey = newAesKey();
+        byte[] header = header(ENVELOPE_MAGIC, null, contentKey, recipients);
+        return Base64.getEncoder().encodeToString(seal(header, contentKey, plain));
+    }
+
+    /** A reusable conversation key plus the envelope header that carries it wrapped for each recipient. */
+    public record SessionKey(byte[] id, SecretKey key, byte[] header) {}
+
+    /**
+     * Creates a session key for recipients. Its envelopes ("ENV2") add an 8-byte key id after the magic,
+     * so a reader that has already unwrapped the key can skip the RSA step.
+     */
+    public static SessionKey newSessionKey(PublicKey... recipients) throws GeneralSecurityException {
+        byte[] id = new byte[KEY_ID_BYTES];
+        RANDOM.nextBytes(id);
+        SecretKey key = newAesKey();
+        return new SessionKey(id, key, header(SESSION_MAGIC, id, key, recipients));
+    }
+
+    /** Encrypt plaintext (UTF-8) under a session key; only AES-GCM runs. Returns Base64. */
+    public static String encryptWithSessionKey(String plain, SessionKey sessionKey) throws GeneralSecurityException {
+        return Base64.getEncoder().encodeToString(seal(sessionKey.header(), sessionKey.key(), plain));
+    }
+
+    /** The parsed header of an envelope; keyId is null for single-use ("ENV1") envelopes. */
+    public record Envelope(byte[] keyId, List<byte[]> fingerprints, List<byte[]> wrappedKeys, int aadLength) {
+        /** The key wrapped for the holder of key, or null if it is not a recipient. */
+        public byte[] wrappedFor(RSAKey key) throws GeneralSecurityException {
+            byte[] mine = fingerprint(key);
+            for (int i = 0; i < fingerprints.size(); i++) {
+                if (MessageDigest.isEqual(fingerprints.get(i), mine)) return wrappedKeys.get(i);
+            }
+            return null;
         }
+    }
+
+    /** Reads an envelope header, or returns null if ct is a bare RSA block. */
+    public static Envelope parseEnvelope(byte[] ct) throws GeneralSecurityException {
+        boolean session = startsWith(ct, SESSION_MAGIC);
+        if (!session && !startsWith(ct, ENVELOPE_MAGIC)) return null;
+        ByteBuffer in = ByteBuffer.wrap(ct);
         try {
-            // First try standard Base64 decoding
-            byte[] ct = Base64.getDecoder().decode(b64cipher);
-            Cipher cipher = Cipher.getInstance(RSA_ALGO);
-            cipher.init(Cipher.DECRYPT_MODE, priv);
-            byte[] pt = cipher.doFinal(ct);
-            return new String(pt, java.nio.charset.StandardCharsets.UTF_8);
-        } catch (IllegalArgumentException e) {
-            System.out.println("Standard Base64 failed, trying URL-safe Base64: " + e.getMessage());
-            try {
-                // If standard Base64 fails, try URL-safe Base64
-                byte[] ct = Base64.getUrlDecoder().decode(b64cipher);
-                Cipher cipher = Cipher.getInstance(RSA_ALGO);
-                cipher.init(Cipher.DECRYPT_MODE, priv);
-                byte[] pt = cipher.doFinal(ct);
-                return new String(pt, java.nio.charset.StandardCharsets.UTF_8);
-            } catch (IllegalArgumentException e2) {
-                System.out.println("URL-safe Base64 failed, trying to clean the string: " + e2.getMessage());
-                // If both fail, try cleaning the string first
-                String cleaned = cleanBase64String(b64cipher);
-                byte[] ct = Base64.getDecoder().decode(cleaned);
-                Cipher cipher = Cipher.getInstance(RSA_ALGO);
-                cipher.init(Cipher.DECRYPT_MODE, priv);
-                byte[] pt = cipher.doFinal(ct);
-                return new String(pt, java.nio.charset.StandardCharsets.UTF_8);
+            in.position(4);
+            byte[] keyId = null;
+            if (session) {
+                keyId = new byte[KEY_ID_BYTES];
+                in.get(keyId);
             }
+            int count = in.get() & 0xFF;
+            List<byte[]> fingerprints = new ArrayList<>(count);
+            List<byte[]> wrappedKeys = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] fp = new byte[FINGERPRINT_BYTES];
+                in.get(fp);
+                byte[] wrapped = new byte[in.getShort() & 0xFFFF];
+                in.get(wrapped);
+                fingerprints.add(fp);
+                wrappedKeys.add(wrapped);
+            }
+            if (in.remaining() < GCM_IV_BYTES + GCM_TAG_BITS / 8) {
+                throw new GeneralSecurityException("Truncated envelope");
+            }
+            return new Envelope(keyId, fingerprints, wrappedKeys, in.position());
+        } catch (BufferUnderflowException e) {
+            throw new GeneralSecurityException("Truncated envelope", e);
+        }
+    }
+
+    /** Decrypts the body of a parsed envelope with its content key. Returns UTF-8 plaintext. */
+    public static String openEnvelope(byte[] ct, Envelope envelope, Key contentKey) throws GeneralSecurityException {
+        int ivStart = envelope.aadLength();
+        Cipher aes = AES.get();
+        aes.init(Cipher.DECRYPT_MODE, contentKey, new GCMParameterSpec(GCM_TAG_BITS, ct, ivStart, GCM_IV_BYTES));
+        aes.updateAAD(ct, 0, ivStart);
+        int bodyStart = ivStart + GCM_IV_BYTES;
+        return new String(aes.doFinal(ct, bodyStart, ct.length - bodyStart), StandardCharsets.UTF_8);
+    }
+
+    /** RSA-wraps an AES key for one recipient. */
+    public static byte[] wrapKey(SecretKey key, PublicKey recipient) throws GeneralSecurityException {
+        Cipher rsa = RSA.get();
+        rsa.init(Cipher.WRAP_MODE, recipient);
+        return rsa.wrap(key);
+    }
+
+    /** Recovers an AES key wrapped for priv's public half. */
+    public static SecretKey unwrapKey(byte[] wrapped, PrivateKey priv) throws GeneralSecurityException {
+        Cipher rsa = RSA.get();
+        rsa.init(Cipher.UNWRAP_MODE, priv);
+        return (SecretKey) rsa.unwrap(wrapped, "AES", Cipher.SECRET_KEY);
+    }
+
+    private static SecretKey newAesKey() {
+        byte[] key = new byte[AES_KEY_BITS / 8];
+        RANDOM.nextBytes(key);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    /** Magic, optional key id, then fingerprint / length / wrapped key for each recipient. */
+    private static byte[] header(byte[] magic, byte[] keyId, SecretKey key, PublicKey... recipients) throws GeneralSecurityException {
+        if (recipients.length == 0 || recipients.length > 255) {
+            throw new IllegalArgumentException("Envelope needs 1-255 recipients, got " + recipients.length);
+        }
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.writeBytes(magic);
+        if (keyId != null) header.writeBytes(keyId);
+        header.write(recipients.length);
+        for (PublicKey recipient : recipients) {
+            byte[] wrapped = wrapKey(key, recipient);
+            header.writeBytes(fingerprint((RSAKey) recipient));
+            header.write(wrapped.length >>> 8);
+            header.write(wrapped.length);
+            header.writeBytes(wrapped);
+        }
+        return header.toByteArray();
+    }
+
+    /** header || IV || AES-GCM(plain), with the header as associated data. */
+    private static byte[] seal(byte[] header, SecretKey key, String plain) throws GeneralSecurityException {
+        byte[] iv = new byte[GCM_IV_BYTES];
+        RANDOM.nextBytes(iv);
+        Cipher aes = AES.get();
+        aes.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_BITS, iv));
+        aes.updateAAD(header);
+        byte[] body = aes.doFinal(plain.getBytes(StandardCharsets.UTF_8));
+
+        byte[] envelope = new byte[header.length + iv.length + body.length];
+        System.arraycopy(header, 0, envelope, 0, header.length);
+        System.arraycopy(iv, 0, envelope, header.length, iv.length);
+        System.arraycopy(body, 0, envelope, header.length + iv.length, body.length);
+        return envelope;
+    }
+
+    private static boolean startsWith(byte[] ct, byte[] magic) {
+        if (ct.length < magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if (ct[i] != magic[i]) return false;
+        }
+        return true;
+    }
+
+    /** First bytes of SHA-256 over the RSA modulus; public and private halves of a pair give the same value. */
+    private static byte[] fingerprint(RSAKey key) throws GeneralSecurityException {
+        byte[] digest = SHA_256.get().digest(key.getModulus().toByteArray());
+        return Arrays.copyOf(digest, FINGERPRINT_BYTES);
+    }
+
+    /** Decrypts an envelope of either kind or a legacy whole-message RSA block, unwrapping with priv. */
+    public static String decrypt(byte[] ct, PrivateKey priv) throws GeneralSecurityException {
+        Envelope envelope = parseEnvelope(ct);
+        if (envelope != null) {
+            byte[] wrapped = envelope.wrappedFor((RSAKey) priv);
+            if (wrapped == null) {
+                throw new GeneralSecurityException("Message was not encrypted for this key");
+            }
+            return openEnvelope(ct, envelope, unwrapKey(wrapped, priv));
         }
+        Cipher cipher = RSA.get();
+        cipher.init(Cipher.DECRYPT_MODE, priv);
+        return new String(cipher.doFinal(ct), StandardCharsets.UTF_8);
+    }
+
+    /** Decodes Base64 ciphertext, tolerating URL-safe and unpadded or wrapped input. */
+    public static byte[] decodeCiphertext(String b64cipher) {
+        if (b64cipher == null || b64cipher.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ciphertext is null or empty");
+        }
+        return Base64.getDecoder().decode(cleanBase64String(b64cipher));
+    }
+
+    /** Decrypt Base64 ciphertext (envelope or RSA block) with RSA private key. Returns UTF-8 plaintext. */
+    public static String decryptWithPrivateKey(String b64cipher, PrivateKey priv) throws GeneralSecurityException {
+        return decrypt(decodeCiphertext(b64cipher), priv);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,96 @@
+package client.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads or creates a user's RSA key pair off the JavaFX thread. {@link #prepare} runs as soon as a login
+ * is submitted, so decoding the key files, or generating a new pair, overlaps the server round-trip.
+ * Nothing is written to LocalStore until {@link #forUser} is called after the login succeeded.
+ */
+public final class KeyMaterial {
+    /** A usable key pair; replacedInvalid is set when unreadable key files were replaced by a new pair. */
+    public record Keys(PrivateKey privateKey, PublicKey publicKey, String publicKeyBase64, boolean replacedInvalid) {}
+
+    /** A pair read from disk, or generated but not saved yet. */
+    private record Candidate(KeyPair pair, boolean generated, boolean replacedInvalid) {}
+
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "key-material");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Map<String, CompletableFuture<Candidate>> prepared = new ConcurrentHashMap<>();
+    private static final Map<String, CompletableFuture<Keys>> ready = new ConcurrentHashMap<>();
+
+    private KeyMaterial() {}
+
+    /** Starts reading (or speculatively generating) username's keys; a later username supersedes this one. */
+    public static void prepare(String username) {
+        prepared.keySet().removeIf(name -> !name.equals(username));
+        if (ready.containsKey(username)) return;
+        prepared.computeIfAbsent(username, name -> CompletableFuture.supplyAsync(() -> read(name), WORKER));
+    }
+
+    /** The logged-in user's keys, saving a newly generated pair first. Completes on a background thread. */
+    public static CompletableFuture<Keys> forUser(String username) {
+        CompletableFuture<Keys> keys = ready.computeIfAbsent(username, name -> {
+            CompletableFuture<Candidate> candidate = prepared.remove(name);
+            if (candidate == null) {
+                candidate = CompletableFuture.supplyAsync(() -> read(name), WORKER);
+            }
+            return candidate.thenApplyAsync(c -> persist(name, c), WORKER);
+        });
+        // A failed attempt is not cached, so the next login tries again
+        keys.whenComplete((k, error) -> {
+            if (error != null) ready.remove(username, keys);
+        });
+        return keys;
+    }
+
+    /** Drops everything held for username, e.g. on logout or after its key files were replaced. */
+    public static void forget(String username) {
+        prepared.remove(username);
+        ready.remove(username);
+    }
+
+    private static Candidate read(String username) {
+        if (LocalStore.privateKeyExists(username) && LocalStore.exists(username, "publicKey")) {
+            try {
+                PrivateKey privateKey = CryptoUtil.decodePrivateKey(LocalStore.load(username, "privateKey"));
+                PublicKey publicKey = CryptoUtil.decodePublicKey(LocalStore.load(username, "publicKey"));
+                return new Candidate(new KeyPair(publicKey, privateKey), false, false);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                System.err.println("Invalid or corrupted key files for user " + username + ", regenerating keys: " + e.getMessage());
+                return new Candidate(generate(), true, true);
+            }
+        }
+        return new Candidate(generate(), true, false);
+    }
+
+    private static KeyPair generate() {
+        try {
+            return CryptoUtil.generateRSAKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static Keys persist(String username, Candidate candidate) {
+        KeyPair pair = candidate.pair();
+        String publicKeyBase64 = CryptoUtil.encodePublicKey(pair.getPublic());
+        if (candidate.generated()) {
+            LocalStore.save(username, "privateKey", CryptoUtil.encodePrivateKey(pair.getPrivate()));
+            LocalStore.save(username, "publicKey", publicKeyBase64);
+        }
+        return new Keys(pair.getPrivate(), pair.getPublic(), publicKeyBase64, candidate.replacedInvalid());
+    }
+}
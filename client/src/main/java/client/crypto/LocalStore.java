@@ -4,10 +4,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
-import client.ClientDatabaseStore;
+import java.util.concurrent.CompletableFuture;
+import client.ChatMessageWriter;
+import client.storage.ChatLog;
 
 public class LocalStore {
     private static final Path STORE_DIR = Paths.get(
@@ -47,6 +48,17 @@ public class LocalStore {
         }
     }
 
+    /** Adds one line to the end of a key file, creating it if needed. */
+    public static void append(String username, String keyName, String line) {
+        Path path = getPath(username, keyName);
+        try {
+            Files.write(path, (line + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append to key: " + keyName + " for user: " + username, e);
+        }
+    }
+
     public static String load(String username, String keyName) {
         Path path = getPath(username, keyName);
         try {
@@ -67,29 +79,25 @@ public class LocalStore {
         return STORE_DIR.resolve(username + "_" + keyName + ".txt");
     }
 
-    public static void saveChatMessage(String username, String peerName, String sender, String receiver, String cipher, long timestamp) {
-        try {
-            ClientDatabaseStore.ensureUserExists(username);
-            ClientDatabaseStore.ensureUserExists(peerName);
-            ClientDatabaseStore.ensureUserExists(sender);
-            ClientDatabaseStore.ensureUserExists(receiver);
-            ClientDatabaseStore.saveChatMessage(username, peerName, sender, receiver, cipher, timestamp);
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to save chat message for " + username + " to " + peerName, e);
-        }
+    /** Queues a message for the local history; the future completes once it is on disk. */
+    public static CompletableFuture<Void> saveChatMessage(String username, String peerName, String sender, String receiver, String cipher, long timestamp) {
+        return ChatMessageWriter.save(username, peerName, sender, receiver, cipher, timestamp);
     }
 
-    public static List<ChatMessageEntry> loadChatMessages(String username, String peerName) {
+    /** Up to limit messages before (beforeTimestamp, beforeId), oldest first; Long.MAX_VALUE for the latest. */
+    public static List<ChatMessageEntry> loadChatMessagesBefore(String username, String peerName,
+                                                                long beforeTimestamp, long beforeId, int limit) {
+        // Read our own writes: rows still queued would otherwise be missing from the page
+        ChatMessageWriter.flush().join();
         try {
-            ClientDatabaseStore.ensureUserExists(username);
-            ClientDatabaseStore.ensureUserExists(peerName);
-            return ClientDatabaseStore.loadChatMessages(username, peerName);
-        } catch (SQLException e) {
+            return ChatLog.before(username, peerName, beforeTimestamp, beforeId, limit);
+        } catch (IOException e) {
             throw new RuntimeException("Failed to load chat messages for " + username + " to " + peerName, e);
         }
     }
 
     public static class ChatMessageEntry {
+        public long id;
         public String sender;
         public String receiver;
         public String cipher;
@@ -103,5 +111,10 @@ public class LocalStore {
             this.cipher = cipher;
             this.timestamp = timestamp;
         }
+
+        public ChatMessageEntry(long id, String sender, String receiver, String cipher, long timestamp) {
+            this(sender, receiver, cipher, timestamp);
+            this.id = id;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package client.crypto;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decrypted message text for one ChatClient session, least recently used first, capped at
+ * plaintext.maxEntries messages. Entries are keyed by conversation, timestamp and ciphertext, so two
+ * messages stored in the same millisecond never share a slot. Text is held as char[] and overwritten when
+ * it is evicted or when the session ends.
+ */
+public class PlaintextCache {
+    private static final int MAX_ENTRIES = Integer.getInteger("plaintext.maxEntries", 5000);
+
+    private record Key(String peer, long timestamp, String cipher) {}
+
+    private final Map<Key, char[]> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, char[]> eldest) {
+            if (size() <= MAX_ENTRIES) return false;
+            Arrays.fill(eldest.getValue(), '\0');
+            return true;
+        }
+    };
+
+    /** The cached text of a message, or null if it has to be decrypted. */
+    public synchronized String get(String peer, long timestamp, String cipher) {
+        char[] text = entries.get(new Key(peer, timestamp, cipher));
+        return text == null ? null : new String(text);
+    }
+
+    public synchronized void put(String peer, long timestamp, String cipher, String plain) {
+        char[] previous = entries.put(new Key(peer, timestamp, cipher), plain.toCharArray());
+        if (previous != null) Arrays.fill(previous, '\0');
+    }
+
+    /** Overwrites and drops every entry, e.g. on logout. */
+    public synchronized void wipe() {
+        for (char[] text : entries.values()) {
+            Arrays.fill(text, '\0');
+        }
+        entries.clear();
+    }
+}
@@ -0,0 +1,165 @@
+package client.crypto;
+
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.RSAKey;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-user cache of conversation session keys. Each peer gets an AES key that is RSA-wrapped once for the
+ * peer and once for us; every message under it carries that same wrapped header, so sending costs only
+ * AES-GCM. Keys we can read are remembered by key id in memory and in LocalStore, still wrapped with our
+ * own public key, so a history row costs an RSA unwrap only the first time its key is seen per run.
+ * Both are bounded to the session.maxKeys most recently used keys; an evicted key is unwrapped again from
+ * the message envelope, which always carries it. New keys are appended to the file, and the file is
+ * rewritten from memory only once it holds twice that many lines.
+ * An outgoing key is replaced after session.maxMessages messages or session.maxAgeMs, or when the
+ * peer's public key changes.
+ */
+public class SessionKeyCache {
+    private static final String STORE_KEY = "sessionKeys";
+    private static final int MAX_MESSAGES = Integer.getInteger("session.maxMessages", 1000);
+    private static final long MAX_AGE_MS = Long.getLong("session.maxAgeMs", 24L * 60 * 60 * 1000);
+    private static final int MAX_KEYS = Math.max(1, Integer.getInteger("session.maxKeys", 4096));
+    private static final Map<String, SessionKeyCache> byUser = new ConcurrentHashMap<>();
+
+    private final String username;
+    private final PrivateKey privateKey;
+    private final PublicKey publicKey;
+    private final Map<String, Outgoing> outgoing = new ConcurrentHashMap<>();
+    // Key id (Base64) -> unwrapped key, and -> key wrapped for us as stored on disk
+    private final Map<String, SecretKey> keys = lru();
+    private final Map<String, byte[]> wrapped = lru();
+    // Lines in the sessionKeys file, duplicates and evicted keys included
+    private int storedLines;
+
+    private static final class Outgoing {
+        final CryptoUtil.SessionKey key;
+        final PublicKey peerKey;
+        final long created = System.currentTimeMillis();
+        int uses;
+
+        Outgoing(CryptoUtil.SessionKey key, PublicKey peerKey) {
+            this.key = key;
+            this.peerKey = peerKey;
+        }
+
+        boolean expired(PublicKey currentPeerKey) {
+            return uses >= MAX_MESSAGES
+                    || System.currentTimeMillis() - created >= MAX_AGE_MS
+                    || !peerKey.equals(currentPeerKey);
+        }
+    }
+
+    private SessionKeyCache(String username, PrivateKey privateKey, PublicKey publicKey) {
+        this.username = username;
+        this.privateKey = privateKey;
+        this.publicKey = publicKey;
+        if (LocalStore.exists(username, STORE_KEY)) {
+            for (String line : LocalStore.load(username, STORE_KEY).split("\n")) {
+                String[] parts = line.trim().split(" ", 2);
+                if (parts.length == 2) {
+                    storedLines++;
+                    try {
+                        // Later lines are newer, so the LRU ends up holding the most recent keys
+                        wrapped.put(parts[0], Base64.getDecoder().decode(parts[1]));
+                    } catch (IllegalArgumentException ignored) {}
+                }
+            }
+        }
+    }
+
+    private static <V> Map<String, V> lru() {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > MAX_KEYS;
+            }
+        });
+    }
+
+    /** The cache for username's current key pair; a new pair starts a fresh cache. */
+    public static SessionKeyCache forUser(String username, PrivateKey privateKey, PublicKey publicKey) {
+        return byUser.compute(username, (name, cache) ->
+                cache != null && cache.privateKey.equals(privateKey)
+                        ? cache
+                        : new SessionKeyCache(name, privateKey, publicKey));
+    }
+
+    /** Encrypts text for peer under the current session key, starting a new one when due. Returns Base64. */
+    public String encrypt(String peer, PublicKey peerKey, String plain) throws GeneralSecurityException {
+        Outgoing current;
+        synchronized (outgoing) {
+            current = outgoing.get(peer);
+            if (current == null || current.expired(peerKey)) {
+                current = new Outgoing(CryptoUtil.newSessionKey(peerKey, publicKey), peerKey);
+                remember(current.key.id(), current.key.key(), CryptoUtil.wrapKey(current.key.key(), publicKey));
+                outgoing.put(peer, current);
+            }
+            current.uses++;
+        }
+        return CryptoUtil.encryptWithSessionKey(plain, current.key);
+    }
+
+    /** Decrypts any ciphertext we can read, using a cached session key when the envelope names one. */
+    public String decrypt(String b64cipher) throws GeneralSecurityException {
+        byte[] ct = CryptoUtil.decodeCiphertext(b64cipher);
+        CryptoUtil.Envelope envelope = CryptoUtil.parseEnvelope(ct);
+        if (envelope == null || envelope.keyId() == null) {
+            return CryptoUtil.decrypt(ct, privateKey);
+        }
+        return CryptoUtil.openEnvelope(ct, envelope, key(envelope));
+    }
+
+    private SecretKey key(CryptoUtil.Envelope envelope) throws GeneralSecurityException {
+        String id = Base64.getEncoder().encodeToString(envelope.keyId());
+        SecretKey key = keys.get(id);
+        if (key != null) return key;
+        byte[] stored = wrapped.get(id);
+        if (stored != null) {
+            key = CryptoUtil.unwrapKey(stored, privateKey);
+            keys.put(id, key);
+            return key;
+        }
+        byte[] mine = envelope.wrappedFor((RSAKey) privateKey);
+        if (mine == null) {
+            throw new GeneralSecurityException("Message was not encrypted for this key");
+        }
+        key = CryptoUtil.unwrapKey(mine, privateKey);
+        remember(envelope.keyId(), key, mine);
+        return key;
+    }
+
+    /** Caches a key and persists its copy wrapped for our own public key. */
+    private void remember(byte[] keyId, SecretKey key, byte[] wrappedForUs) {
+        String id = Base64.getEncoder().encodeToString(keyId);
+        keys.put(id, key);
+        if (wrapped.putIfAbsent(id, wrappedForUs) == null) {
+            persist(id, wrappedForUs);
+        }
+    }
+
+    /* Appends one key; rewrites the file from memory once evicted and duplicate lines make up half of it */
+    private synchronized void persist(String id, byte[] wrappedForUs) {
+        if (storedLines < 2 * MAX_KEYS) {
+            LocalStore.append(username, STORE_KEY, id + " " + Base64.getEncoder().encodeToString(wrappedForUs));
+            storedLines++;
+            return;
+        }
+        StringBuilder out = new StringBuilder();
+        synchronized (wrapped) {
+            for (Map.Entry<String, byte[]> entry : wrapped.entrySet()) {
+                out.append(entry.getKey()).append(' ')
+                        .append(Base64.getEncoder().encodeToString(entry.getValue())).append('\n');
+            }
+            storedLines = wrapped.size();
+        }
+        LocalStore.save(username, STORE_KEY, out.toString());
+    }
+}
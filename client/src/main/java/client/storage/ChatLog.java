@@ -0,0 +1,89 @@
+package client.storage;
+
+import client.crypto.LocalStore.ChatMessageEntry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embedded chat history: one append-only {@link ConversationLog} per (user, peer) under store.dir, opened
+ * on first use. A daemon thread compacts every open conversation each store.compactIntervalMs.
+ */
+public final class ChatLog {
+    // Per-user app data, not the working directory, so history survives wherever the client is started from
+    private static final Path DIR = Paths.get(System.getProperty("store.dir",
+            Paths.get(System.getProperty("user.home"), ".secure-messaging", "history").toString()));
+    private static final int SEGMENT_BYTES = Integer.getInteger("store.segmentBytes", 4 * 1024 * 1024);
+    private static final long COMPACT_INTERVAL_MS = Long.getLong("store.compactIntervalMs", 10 * 60 * 1000L);
+
+    private static final Map<Path, ConversationLog> logs = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService COMPACTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "history-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        COMPACTOR.scheduleWithFixedDelay(ChatLog::compactAll, COMPACT_INTERVAL_MS, COMPACT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private ChatLog() {}
+
+    /** Appends a message to username's conversation with peerName and sets its id; see {@link #force}. */
+    public static void append(String username, String peerName, ChatMessageEntry entry) throws IOException {
+        log(username, peerName).append(entry);
+    }
+
+    /** Writes every conversation's pending appends through to disk. */
+    public static void force() {
+        for (ConversationLog log : logs.values()) {
+            log.force();
+        }
+    }
+
+    /** Up to limit messages before (beforeTimestamp, beforeId), oldest first; Long.MAX_VALUE for the latest. */
+    public static List<ChatMessageEntry> before(String username, String peerName,
+                                                long beforeTimestamp, long beforeId, int limit) throws IOException {
+        return log(username, peerName).before(beforeTimestamp, beforeId, limit);
+    }
+
+    private static ConversationLog log(String username, String peerName) throws IOException {
+        Path dir = DIR.resolve(dirName(username)).resolve(dirName(peerName));
+        try {
+            return logs.computeIfAbsent(dir, d -> {
+                try {
+                    return ConversationLog.open(d, SEGMENT_BYTES);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /* Usernames may hold characters a file system rejects, so directories use their Base64 form */
+    private static String dirName(String username) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(username.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void compactAll() {
+        for (ConversationLog log : logs.values()) {
+            try {
+                log.compact();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Chat log compaction failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package client.storage;
+
+import client.crypto.LocalStore.ChatMessageEntry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The append-only history of one conversation: a list of segments named in a MANIFEST file, where only
+ * the last segment takes appends. Ids are assigned in append order and timestamps never go backwards
+ * within a conversation, so the log is sorted by (timestamp, id) and a keyset read walks segments from
+ * the newest. Compaction rewrites the sealed segments once enough of them is duplicates or unused space,
+ * and only looks again after another segment has been sealed.
+ */
+final class ConversationLog {
+    private static final String MANIFEST = "MANIFEST";
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextId = 1;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private int nextFileNumber;
+    private boolean dirty;
+    // Bumped whenever a segment is sealed; compaction skips a sealed set it has already looked at
+    private int sealedVersion;
+    private int checkedVersion = -1;
+
+    /* A message stored twice has the same timestamp and ciphertext */
+    private record Copy(long timestamp, long cipherHash) {}
+
+    private ConversationLog(Path dir, int segmentBytes) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /** Opens the log in dir, creating it if needed. Only the active segment is scanned. */
+    static ConversationLog open(Path dir, int segmentBytes) throws IOException {
+        Files.createDirectories(dir);
+        ConversationLog log = new ConversationLog(dir, segmentBytes);
+        List<String> names = log.liveNames();
+        for (int i = 0; i < names.size(); i++) {
+            Segment previous = log.segments.isEmpty() ? null : log.segments.get(i - 1);
+            log.segments.add(Segment.open(dir.resolve(names.get(i)), i == names.size() - 1,
+                    () -> previous == null ? 1 : previous.lastId() + 1));
+            log.nextFileNumber = Math.max(log.nextFileNumber, fileNumber(names.get(i)) + 1);
+        }
+        log.deleteUnlisted(new HashSet<>(names));
+        for (int i = log.segments.size() - 1; i >= 0; i--) {
+            Segment segment = log.segments.get(i);
+            if (i == log.segments.size() - 1) {
+                log.nextId = Math.max(segment.firstId, segment.lastId() + 1);
+            }
+            if (segment.records() > 0) {
+                log.lastTimestamp = segment.lastTimestamp();
+                break;
+            }
+        }
+        return log;
+    }
+
+    /** (timestamp, id) ordering of the log. */
+    static boolean before(long timestamp, long id, long thanTimestamp, long thanId) {
+        return timestamp < thanTimestamp || (timestamp == thanTimestamp && id < thanId);
+    }
+
+    /** Appends a message, setting entry.id; the record is durable after the next {@link #force()}. */
+    synchronized void append(ChatMessageEntry entry) throws IOException {
+        // A clock that stepped back must not break the (timestamp, id) order reads rely on
+        entry.timestamp = Math.max(entry.timestamp, lastTimestamp);
+        byte[] sender = entry.sender.getBytes(StandardCharsets.UTF_8);
+        byte[] receiver = entry.receiver.getBytes(StandardCharsets.UTF_8);
+        byte[] cipher = entry.cipher.getBytes(StandardCharsets.UTF_8);
+        int size = Segment.recordSize(sender, receiver, cipher);
+        Segment active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (active == null || !active.fits(size)) {
+            active = roll(size);
+        }
+        entry.id = nextId++;
+        active.append(entry.id, entry.timestamp, sender, receiver, cipher);
+        lastTimestamp = entry.timestamp;
+        dirty = true;
+    }
+
+    synchronized void force() {
+        if (!dirty) return;
+        segments.get(segments.size() - 1).force();
+        dirty = false;
+    }
+
+    /** Up to limit messages before (timestamp, id), oldest first. */
+    synchronized List<ChatMessageEntry> before(long timestamp, long id, int limit) {
+        List<ChatMessageEntry> newestFirst = new ArrayList<>(limit);
+        for (int i = segments.size() - 1; i >= 0 && newestFirst.size() < limit; i--) {
+            segments.get(i).collectBefore(timestamp, id, limit, newestFirst);
+        }
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    /**
+     * Rewrites the sealed segments into packed ones without repeated messages (the same timestamp and
+     * ciphertext, compared by a 64-bit hash) once at least a quarter of their space would be reclaimed.
+     * Appends and reads continue while the new files are written; the swap itself is one MANIFEST replace
+     * under the lock.
+     */
+    void compact() throws IOException {
+        List<Segment> sealed;
+        int version;
+        synchronized (this) {
+            if (segments.size() < 2 || sealedVersion == checkedVersion) return;
+            sealed = List.copyOf(segments.subList(0, segments.size() - 1));
+            version = sealedVersion;
+        }
+
+        long total = 0;
+        long[] live = new long[1];
+        Set<Copy> seen = new HashSet<>();
+        for (Segment segment : sealed) {
+            total += segment.capacity();
+            segment.forEach((id, timestamp, cipherHash, record) -> {
+                if (seen.add(new Copy(timestamp, cipherHash))) live[0] += record.remaining();
+            });
+        }
+        long waste = total - live[0] - (long) Segment.HEADER * sealed.size();
+        if (waste * 4 < total) {
+            synchronized (this) {
+                checkedVersion = version;
+            }
+            return;
+        }
+
+        List<Segment> packed = new ArrayList<>();
+        seen.clear();
+        Segment[] out = new Segment[1];
+        long[] remaining = {live[0]};
+        try {
+            for (Segment segment : sealed) {
+                segment.forEach((id, timestamp, cipherHash, record) -> {
+                    if (!seen.add(new Copy(timestamp, cipherHash))) return;
+                    int size = record.remaining();
+                    if (out[0] == null || !out[0].fits(size)) {
+                        if (out[0] != null) out[0].force();
+                        // Sized to what is left, so the last packed segment has no empty tail
+                        int capacity = (int) Math.max(Segment.HEADER + size,
+                                Math.min(segmentBytes, Segment.HEADER + remaining[0]));
+                        out[0] = Segment.create(dir.resolve(fileName(reserveFileNumber())), id, capacity);
+                        packed.add(out[0]);
+                    }
+                    out[0].appendRaw(record, id, timestamp);
+                    remaining[0] -= size;
+                });
+            }
+            if (out[0] != null) out[0].force();
+        } catch (IOException | RuntimeException e) {
+            for (Segment segment : packed) deleteQuietly(segment.path);
+            throw e;
+        }
+
+        synchronized (this) {
+            segments.subList(0, sealed.size()).clear();
+            segments.addAll(0, packed);
+            writeManifest();
+            // The packed set is what a pass over this version produces, so it needs no second look
+            checkedVersion = version;
+        }
+        for (Segment segment : sealed) {
+            deleteQuietly(segment.path);
+        }
+    }
+
+    /** Seals the active segment and starts a new one big enough for a record of the given size. */
+    private Segment roll(int recordSize) throws IOException {
+        if (!segments.isEmpty()) {
+            segments.get(segments.size() - 1).force();
+            sealedVersion++;
+        }
+        String name = fileName(reserveFileNumber());
+        Segment segment = Segment.create(dir.resolve(name), nextId, Math.max(segmentBytes, Segment.HEADER + recordSize));
+        // The header must be on disk before MANIFEST names the file
+        segment.force();
+        segments.add(segment);
+        writeManifest();
+        return segment;
+    }
+
+    private synchronized int reserveFileNumber() {
+        return nextFileNumber++;
+    }
+
+    /** Replaces MANIFEST atomically with the current segment list. */
+    private void writeManifest() throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (Segment segment : segments) {
+            out.append(segment.path.getFileName()).append('\n');
+        }
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        Files.writeString(tmp, out, StandardCharsets.UTF_8);
+        Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Segment files named in MANIFEST, in log order; with no MANIFEST, every segment file by number. */
+    private List<String> liveNames() throws IOException {
+        Path manifest = dir.resolve(MANIFEST);
+        List<String> names = new ArrayList<>();
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                if (!line.isBlank() && Files.exists(dir.resolve(line.trim()))) names.add(line.trim());
+            }
+            return names;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString()).filter(n -> n.endsWith(SUFFIX)).forEach(names::add);
+        }
+        names.sort((a, b) -> Integer.compare(fileNumber(a), fileNumber(b)));
+        return names;
+    }
+
+    /** Removes segment files left behind by a compaction or roll that did not reach MANIFEST. */
+    private void deleteUnlisted(Set<String> live) throws IOException {
+        if (!Files.exists(dir.resolve(MANIFEST))) return;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX) && !live.contains(name)) deleteQuietly(file);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Still mapped on some platforms; the next open removes it
+            System.err.println("Could not delete " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static String fileName(int number) {
+        return String.format("%08d%s", number, SUFFIX);
+    }
+
+    private static int fileNumber(String name) {
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+}
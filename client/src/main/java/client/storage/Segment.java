@@ -0,0 +1,293 @@
+package client.storage;
+
+import client.crypto.LocalStore.ChatMessageEntry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32C;
+
+/**
+ * One memory-mapped file of a conversation log. After a 16-byte header (magic, firstId) come records of
+ * [payload length][CRC32C][id][timestamp][sender][receiver][cipher]; a zero length marks the end of the
+ * data. Every INDEX_INTERVAL-th record is kept in a sparse in-memory index of (timestamp, id, offset),
+ * built by one scan the first time the segment is read.
+ */
+final class Segment {
+    static final int HEADER = 16;
+    private static final int MAGIC = 0x434c4f47; // "CLOG"
+    private static final int INDEX_INTERVAL = 32;
+    private static final int MIN_PAYLOAD = 8 + 8 + 2 + 2 + 4;
+
+    final Path path;
+    final long firstId;
+    private final MappedByteBuffer map;
+    private final boolean writable;
+
+    private boolean scanned;
+    private int end = HEADER;
+    private int records;
+    private long lastId;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private int dirtyFrom = -1;
+
+    private long[] indexTimestamps = new long[8];
+    private long[] indexIds = new long[8];
+    private int[] indexOffsets = new int[8];
+    private int indexSize;
+
+    private Segment(Path path, MappedByteBuffer map, long firstId, boolean writable) {
+        this.path = path;
+        this.map = map;
+        this.firstId = firstId;
+        this.writable = writable;
+        this.lastId = firstId - 1;
+    }
+
+    /** Creates and maps a new, zero-filled segment of the given size. */
+    static Segment create(Path path, long firstId, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            map.putInt(0, MAGIC);
+            map.putLong(8, firstId);
+            Segment segment = new Segment(path, map, firstId, true);
+            segment.scanned = true;
+            segment.dirtyFrom = 0;
+            return segment;
+        }
+    }
+
+    /**
+     * Maps an existing segment; only the active one is opened writable. An active segment whose header
+     * never reached the disk (all zeros) is started afresh as an empty segment beginning at blankFirstId.
+     */
+    static Segment open(Path path, boolean writable, LongSupplier blankFirstId) throws IOException {
+        try (FileChannel channel = writable
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a chat log segment: " + path);
+            }
+            MappedByteBuffer map = channel.map(
+                    writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, size);
+            if (writable && map.getInt(0) == 0 && map.getLong(8) == 0) {
+                System.err.println("Chat log " + path + " has no header, starting it empty");
+                for (int i = 0; i < map.capacity(); i++) {
+                    map.put(i, (byte) 0);
+                }
+                long firstId = blankFirstId.getAsLong();
+                map.putInt(0, MAGIC);
+                map.putLong(8, firstId);
+                Segment segment = new Segment(path, map, firstId, true);
+                segment.scanned = true;
+                map.force();
+                return segment;
+            }
+            if (map.getInt(0) != MAGIC) {
+                throw new IOException("Not a chat log segment: " + path);
+            }
+            return new Segment(path, map, map.getLong(8), writable);
+        }
+    }
+
+    static int recordSize(byte[] sender, byte[] receiver, byte[] cipher) {
+        return 8 + MIN_PAYLOAD + sender.length + receiver.length + cipher.length;
+    }
+
+    /**
+     * Walks the records once to find the end of the data and fill the sparse index. A torn or corrupt
+     * record ends the segment; in the writable segment the bytes after it are zeroed so later appends
+     * start clean.
+     */
+    synchronized void scan() {
+        if (scanned) return;
+        int pos = HEADER;
+        int length;
+        while ((length = payloadAt(pos)) >= 0) {
+            indexRecord(pos, map.getLong(pos + 8), map.getLong(pos + 16));
+            pos += 8 + length;
+        }
+        end = pos;
+        if (writable && end + 4 <= map.capacity() && map.getInt(end) != 0) {
+            System.err.println("Truncating damaged chat log " + path + " at offset " + end);
+            for (int i = end; i < map.capacity(); i++) {
+                map.put(i, (byte) 0);
+            }
+            dirtyFrom = end;
+        }
+        scanned = true;
+    }
+
+    boolean fits(int recordSize) {
+        return end + recordSize <= map.capacity();
+    }
+
+    void append(long id, long timestamp, byte[] sender, byte[] receiver, byte[] cipher) {
+        int size = recordSize(sender, receiver, cipher);
+        ByteBuffer out = map.slice(end, size);
+        out.putInt(size - 8).putInt(0).putLong(id).putLong(timestamp)
+                .putShort((short) sender.length).put(sender)
+                .putShort((short) receiver.length).put(receiver)
+                .putInt(cipher.length).put(cipher);
+        CRC32C crc = new CRC32C();
+        crc.update(map.slice(end + 8, size - 8));
+        map.putInt(end + 4, (int) crc.getValue());
+        if (dirtyFrom < 0) dirtyFrom = end;
+        indexRecord(end, id, timestamp);
+        end += size;
+    }
+
+    /** Writes appended records through to disk. */
+    void force() {
+        if (dirtyFrom < 0) return;
+        map.force(dirtyFrom, end - dirtyFrom);
+        dirtyFrom = -1;
+    }
+
+    int records() {
+        scan();
+        return records;
+    }
+
+    long lastId() {
+        scan();
+        return lastId;
+    }
+
+    long lastTimestamp() {
+        scan();
+        return lastTimestamp;
+    }
+
+    int capacity() {
+        return map.capacity();
+    }
+
+    /**
+     * Adds to out, newest first, up to need records ordered before (timestamp, id). Records in a
+     * conversation are stored in (timestamp, id) order, so the sparse index finds the last block that
+     * can hold one and only that block is scanned record by record.
+     */
+    void collectBefore(long timestamp, long id, int need, List<ChatMessageEntry> out) {
+        scan();
+        int lo = 0;
+        int hi = indexSize - 1;
+        int block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ConversationLog.before(indexTimestamps[mid], indexIds[mid], timestamp, id)) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        int[] offsets = new int[INDEX_INTERVAL];
+        for (int b = block; b >= 0 && out.size() < need; b--) {
+            int to = b + 1 < indexSize ? indexOffsets[b + 1] : end;
+            int count = 0;
+            for (int pos = indexOffsets[b]; pos < to; pos += 8 + map.getInt(pos)) {
+                if (b == block && !ConversationLog.before(map.getLong(pos + 16), map.getLong(pos + 8), timestamp, id)) {
+                    break;
+                }
+                offsets[count++] = pos;
+            }
+            for (int i = count - 1; i >= 0 && out.size() < need; i--) {
+                out.add(read(offsets[i]));
+            }
+        }
+    }
+
+    /** Visits every record in order, for compaction. */
+    void forEach(RecordVisitor visitor) throws IOException {
+        scan();
+        for (int pos = HEADER; pos < end; pos += 8 + map.getInt(pos)) {
+            int length = map.getInt(pos);
+            visitor.visit(map.getLong(pos + 8), map.getLong(pos + 16), cipherHash(pos), map.slice(pos, 8 + length));
+        }
+    }
+
+    interface RecordVisitor {
+        void visit(long id, long timestamp, long cipherHash, ByteBuffer record) throws IOException;
+    }
+
+    /** Copies a whole record, as handed to a RecordVisitor, into this segment. */
+    void appendRaw(ByteBuffer record, long id, long timestamp) {
+        int size = record.remaining();
+        map.put(end, record, record.position(), size);
+        if (dirtyFrom < 0) dirtyFrom = end;
+        indexRecord(end, id, timestamp);
+        end += size;
+    }
+
+    private ChatMessageEntry read(int pos) {
+        int p = pos + 24;
+        int senderLength = Short.toUnsignedInt(map.getShort(p));
+        String sender = string(p + 2, senderLength);
+        p += 2 + senderLength;
+        int receiverLength = Short.toUnsignedInt(map.getShort(p));
+        String receiver = string(p + 2, receiverLength);
+        return new ChatMessageEntry(map.getLong(pos + 8), sender, receiver, cipherAt(pos), map.getLong(pos + 16));
+    }
+
+    private String cipherAt(int pos) {
+        int p = pos + 24;
+        p += 2 + Short.toUnsignedInt(map.getShort(p));
+        p += 2 + Short.toUnsignedInt(map.getShort(p));
+        return string(p + 4, map.getInt(p));
+    }
+
+    /* 64-bit FNV-1a over the cipher bytes, read in place */
+    private long cipherHash(int pos) {
+        int p = pos + 24;
+        p += 2 + Short.toUnsignedInt(map.getShort(p));
+        p += 2 + Short.toUnsignedInt(map.getShort(p));
+        long hash = 0xcbf29ce484222325L;
+        for (int i = p + 4, to = i + map.getInt(p); i < to; i++) {
+            hash = (hash ^ (map.get(i) & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private String string(int pos, int length) {
+        byte[] bytes = new byte[length];
+        map.get(pos, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Payload length of a valid record at pos, or -1 at the end of the data or a damaged record. */
+    private int payloadAt(int pos) {
+        if (pos + 8 > map.capacity()) return -1;
+        int length = map.getInt(pos);
+        if (length < MIN_PAYLOAD || length > map.capacity() - pos - 8) return -1;
+        CRC32C crc = new CRC32C();
+        crc.update(map.slice(pos + 8, length));
+        return (int) crc.getValue() == map.getInt(pos + 4) ? length : -1;
+    }
+
+    private void indexRecord(int pos, long id, long timestamp) {
+        if (records % INDEX_INTERVAL == 0) {
+            if (indexSize == indexOffsets.length) {
+                indexTimestamps = Arrays.copyOf(indexTimestamps, indexSize * 2);
+                indexIds = Arrays.copyOf(indexIds, indexSize * 2);
+                indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+            }
+            indexTimestamps[indexSize] = timestamp;
+            indexIds[indexSize] = id;
+            indexOffsets[indexSize] = pos;
+            indexSize++;
+        }
+        records++;
+        lastId = id;
+        lastTimestamp = timestamp;
+    }
+}
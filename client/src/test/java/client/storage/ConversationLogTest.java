@@ -0,0 +1,189 @@
+package client.storage;
+
+import client.crypto.LocalStore.ChatMessageEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversationLogTest {
+    // Small enough that a few dozen messages span several segments
+    private static final int SEGMENT_BYTES = 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void pagesWalkBackAcrossSegmentsInOrder() throws IOException {
+        ConversationLog log = ConversationLog.open(dir, SEGMENT_BYTES);
+        appendAll(log, 200, 0);
+        log.force();
+        assertTrue(segmentFiles() > 2);
+
+        List<ChatMessageEntry> all = readAll(log, 30);
+        assertEquals(200, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(i + 1, all.get(i).id);
+            assertEquals(cipher(i), all.get(i).cipher);
+        }
+    }
+
+    @Test
+    void pageStopsBeforeCursorWithinTheSameTimestamp() throws IOException {
+        ConversationLog log = ConversationLog.open(dir, SEGMENT_BYTES);
+        for (int i = 0; i < 10; i++) {
+            log.append(new ChatMessageEntry("alice", "bob", cipher(i), 42));
+        }
+        List<ChatMessageEntry> page = log.before(42, 6, 3);
+        assertEquals(List.of(3L, 4L, 5L), ids(page));
+    }
+
+    @Test
+    void reopenKeepsHistoryAndContinuesIds() throws IOException {
+        ConversationLog log = ConversationLog.open(dir, SEGMENT_BYTES);
+        appendAll(log, 50, 0);
+        log.force();
+
+        ConversationLog reopened = ConversationLog.open(dir, SEGMENT_BYTES);
+        assertEquals(ids(readAll(log, 50)), ids(readAll(reopened, 50)));
+        ChatMessageEntry next = new ChatMessageEntry("alice", "bob", "after reopen", 0);
+        reopened.append(next);
+        assertEquals(51, next.id);
+        // A clock that went back is clamped to the newest timestamp already stored
+        assertEquals(49, next.timestamp);
+    }
+
+    @Test
+    void tornTailIsDroppedAndOverwritten() throws IOException {
+        ConversationLog log = ConversationLog.open(dir, 64 * 1024);
+        appendAll(log, 10, 0);
+        log.force();
+
+        // Every record has the same size, so the last one starts at a known offset; break its checksum
+        int size = Segment.recordSize(bytes("alice"), bytes("bob"), bytes(cipher(0)));
+        Path segment = onlySegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7f}), Segment.HEADER + 9L * size + size - 1);
+        }
+
+        ConversationLog reopened = ConversationLog.open(dir, 64 * 1024);
+        assertEquals(9, readAll(reopened, 100).size());
+        ChatMessageEntry next = new ChatMessageEntry("alice", "bob", "replacement", 100);
+        reopened.append(next);
+        reopened.force();
+        assertEquals(10, next.id);
+
+        List<ChatMessageEntry> all = readAll(ConversationLog.open(dir, 64 * 1024), 100);
+        assertEquals(10, all.size());
+        assertEquals("replacement", all.get(9).cipher);
+    }
+
+    @Test
+    void activeSegmentWithoutHeaderOpensEmpty() throws IOException {
+        ConversationLog log = ConversationLog.open(dir, SEGMENT_BYTES);
+        appendAll(log, 5, 0);
+        log.force();
+        Files.write(dir.resolve("00000099.seg"), new byte[SEGMENT_BYTES]);
+        Files.writeString(dir.resolve("MANIFEST"), "00000099.seg\n", StandardOpenOption.APPEND);
+
+        ConversationLog reopened = ConversationLog.open(dir, SEGMENT_BYTES);
+        ChatMessageEntry next = new ChatMessageEntry("alice", "bob", "after crash", 10);
+        reopened.append(next);
+        assertEquals(6, next.id);
+        assertEquals(6, readAll(reopened, 100).size());
+    }
+
+    @Test
+    void compactionDropsDuplicatesAndSurvivesReopen() throws IOException {
+        ConversationLog log = ConversationLog.open(dir, SEGMENT_BYTES);
+        // Each message stored twice, as a re-fetched history would
+        for (int i = 0; i < 60; i++) {
+            log.append(new ChatMessageEntry("alice", "bob", cipher(i / 2), i / 2));
+        }
+        log.force();
+        int before = readAll(log, 100).size();
+
+        log.compact();
+        List<ChatMessageEntry> compacted = readAll(log, 100);
+        assertTrue(compacted.size() < before);
+        for (int i = 1; i < compacted.size(); i++) {
+            ChatMessageEntry prev = compacted.get(i - 1);
+            ChatMessageEntry cur = compacted.get(i);
+            assertTrue(ConversationLog.before(prev.timestamp, prev.id, cur.timestamp, cur.id));
+        }
+        // No message is lost, only its second copy
+        assertEquals(30, compacted.stream().map(e -> e.cipher).distinct().count());
+
+        List<String> files = segmentNames();
+        log.compact();
+        assertEquals(files, segmentNames());
+
+        assertEquals(ids(compacted), ids(readAll(ConversationLog.open(dir, SEGMENT_BYTES), 100)));
+    }
+
+    private static void appendAll(ConversationLog log, int count, long firstTimestamp) throws IOException {
+        for (int i = 0; i < count; i++) {
+            log.append(new ChatMessageEntry("alice", "bob", cipher(i), firstTimestamp + i));
+        }
+    }
+
+    /* Every message, oldest first, read back one keyset page at a time */
+    private static List<ChatMessageEntry> readAll(ConversationLog log, int pageSize) {
+        List<ChatMessageEntry> all = new ArrayList<>();
+        long timestamp = Long.MAX_VALUE;
+        long id = Long.MAX_VALUE;
+        while (true) {
+            List<ChatMessageEntry> page = log.before(timestamp, id, pageSize);
+            if (page.isEmpty()) break;
+            all.addAll(0, page);
+            timestamp = page.get(0).timestamp;
+            id = page.get(0).id;
+        }
+        return all;
+    }
+
+    private static List<Long> ids(List<ChatMessageEntry> entries) {
+        List<Long> ids = new ArrayList<>(entries.size());
+        for (ChatMessageEntry entry : entries) {
+            ids.add(entry.id);
+        }
+        return ids;
+    }
+
+    private static String cipher(int i) {
+        return String.format("cipher-%04d", i);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Path onlySegment() throws IOException {
+        List<String> names = segmentNames();
+        assertEquals(1, names.size());
+        return dir.resolve(names.get(0));
+    }
+
+    private int segmentFiles() throws IOException {
+        return segmentNames().size();
+    }
+
+    private List<String> segmentNames() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (String line : Files.readAllLines(dir.resolve("MANIFEST"))) {
+            if (!line.isBlank()) names.add(line.trim());
+        }
+        return names;
+    }
+}
@@ -1,21 +0,0 @@
-CREATE DATABASE IF NOT EXISTS client_messaging_app;
-USE client_messaging_app;
-
-CREATE TABLE users (
-    user_id INT AUTO_INCREMENT PRIMARY KEY,
-    username VARCHAR(255) NOT NULL UNIQUE
-);
-
-CREATE TABLE chat_messages (
-    message_id INT AUTO_INCREMENT PRIMARY KEY,
-    user_id INT NOT NULL,
-    peer_id INT NOT NULL,
-    sender_id INT NOT NULL,
-    receiver_id INT NOT NULL,
-    cipher TEXT NOT NULL,
-    timestamp BIGINT NOT NULL,
-    FOREIGN KEY (user_id) REFERENCES users(user_id) ON DELETE CASCADE,
-    FOREIGN KEY (peer_id) REFERENCES users(user_id) ON DELETE CASCADE,
-    FOREIGN KEY (sender_id) REFERENCES users(user_id) ON DELETE CASCADE,
-    FOREIGN KEY (receiver_id) REFERENCES users(user_id) ON DELETE CASCADE
-);
\ No newline at end of file
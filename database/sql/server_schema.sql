@@ -33,8 +33,8 @@ CREATE TABLE friend_requests (
     UNIQUE (sender_id, receiver_id)
 );
 
--- Messages table: Stores undelivered messages
-CREATE TABLE messages (
+-- Pending messages table: Stores undelivered messages until the receiver fetches them
+CREATE TABLE pending_messages (
     message_id INT AUTO_INCREMENT PRIMARY KEY,
     sender_id INT NOT NULL,
     receiver_id INT NOT NULL,
@@ -46,5 +46,6 @@ CREATE TABLE messages (
 );
 
 -- Indexes for performance
-CREATE INDEX idx_messages_sender_receiver ON messages (sender_id, receiver_id);
+-- Offline delivery reads one receiver's messages from one sender in arrival order
+CREATE INDEX idx_pending_receiver ON pending_messages (receiver_id, sender_id, message_id);
 CREATE INDEX idx_friend_requests_status ON friend_requests (status);
\ No newline at end of file
@@ -1,69 +1,130 @@
 package server;
 
 import shared.Message;
+import shared.MessageStream;
 import shared.MessageType;
 import server.storage.UserData;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.sql.SQLException;
-import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executor;
 import java.util.Collections;
 
-public class ClientHandler implements Runnable {
+public class ClientHandler implements Runnable, OutboundQueue.Sink {
     private final Socket socket;
+    private final NioConnection connection;
     private String username;
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
+    // The token this connection signed in with, revoked on LOGOUT
+    private String sessionToken;
+    private volatile MessageStream stream;
+    // Other clients' threads send here too; they only queue, and one writer at a time owns the stream
+    private final OutboundQueue outbound;
+    // Offline messages sent to this client whose deletion has not been committed yet, so a repeated
+    // HISTORY_REQUEST does not send them again
+    final Set<Long> historyInFlight = ConcurrentHashMap.newKeySet();
 
     static final ConcurrentHashMap<String, String> activeChatPartner = new ConcurrentHashMap<>();
+    // Most usernames one SEARCH_USER reply carries, and the page size for requests that give none
+    private static final int SEARCH_LIMIT = Math.max(1, ServerConfig.getInt("search.maxResults", 50));
 
-    public ClientHandler(Socket socket) {
+    /* Handler for a blocking socket; queued messages are written by tasks on the writers executor */
+    public ClientHandler(Socket socket, Executor writers) {
         this.socket = socket;
+        this.connection = null;
+        this.outbound = new OutboundQueue(writers, this);
     }
 
-    /* Sends a message to the client over the socket */
-    public void sendMessage(Message msg) {
-        try {
-            out.writeObject(msg);
-            out.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /* Handler for a socket owned by the NIO engine; run() is not used in this mode */
+    ClientHandler(NioConnection connection, OutboundQueue outbound) {
+        this.socket = null;
+        this.connection = connection;
+        this.outbound = outbound;
+    }
+
+    /* Queues a message for the client; false if the connection is closing or was dropped as a slow consumer */
+    public boolean sendMessage(Message msg) {
+        return outbound.offer(msg);
+    }
+
+    /* As sendMessage(msg); onWritten runs on the writer once the message has actually been written out */
+    boolean sendMessage(Message msg, Runnable onWritten) {
+        return outbound.offer(msg, onWritten);
+    }
+
+    /* False while this client is reading too slowly to keep up with what is queued for it */
+    public boolean isWritable() {
+        return outbound.isWritable();
+    }
+
+    /* OutboundQueue.Sink for blocking sockets, called on the writer thread */
+    @Override
+    public void write(Message msg) throws IOException {
+        stream.write(msg);
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        stream.flush();
+        return true;
+    }
+
+    @Override
+    public void closeGracefully() {
+        try { socket.close(); } catch (IOException ignored) {}
+    }
+
+    @Override
+    public void abort(String reason) {
+        System.err.println("Dropping connection" + (username != null ? " for " + username : "") + ": " + reason);
+        closeGracefully();
     }
 
     /* Main loop to handle incoming client messages */
     @Override
     public void run() {
         try {
-            out = new ObjectOutputStream(socket.getOutputStream());
-            in = new ObjectInputStream(socket.getInputStream());
+            // Binary codec if the client offers it, Java serialization for older clients
+            stream = MessageStream.accept(socket.getInputStream(), socket.getOutputStream());
 
             while (true) {
-                Message message = (Message) in.readObject();
+                Message message = stream.read();
                 handleMessage(message);
             }
         } catch (Exception e) {
             // Handle disconnection
         } finally {
-            if (username != null) {
-                ServerMain.onlineUsers.remove(username);
-                activeChatPartner.remove(username);
-                GUIServer.log(username + " has disconnected from the server.");
-            }
+            disconnected();
+            outbound.discard();
             try {
                 socket.close();
             } catch (IOException ignored) {}
         }
     }
 
+    /* Entry point for messages decoded by the NIO engine */
+    void dispatch(Message message) throws IOException, SQLException {
+        handleMessage(message);
+    }
+
+    /* Clears this client's presence once its connection is gone */
+    void disconnected() {
+        if (username != null) {
+            ServerMain.onlineUsers.remove(username);
+            activeChatPartner.remove(username);
+            GUIServer.log(username + " has disconnected from the server.");
+        }
+    }
+
     /* Closes the client socket connection */
     public void shutdown() {
+        if (connection != null) {
+            connection.closeNow();
+            return;
+        }
         try {
             socket.close();
         } catch (IOException e) {
@@ -73,9 +134,14 @@ public class ClientHandler implements Runnable {
 
     /* Processes different types of incoming messages from the client */
     private void handleMessage(Message message) throws IOException, SQLException {
+        if (!SessionTokens.firstDelivery(sessionToken, message.getClientId())) {
+            System.out.println("Ignoring resent " + message.getType() + " #" + message.getClientId() + " from " + username);
+            return;
+        }
         switch (message.getType()) {
             case REGISTER -> UserManager.handleRegister(message, this);
             case LOGIN -> UserManager.handleLogin(message, this);
+            case RESUME_SESSION -> UserManager.handleResume(message, this);
             case LOGOUT -> handleLogout();
             case CHANGE_PASSWORD -> handleChangePassword(message);
             case CHAT -> handleChat(message);
@@ -120,7 +186,9 @@ public class ClientHandler implements Runnable {
             ServerMain.onlineUsers.remove(username);
             activeChatPartner.remove(username);
         }
-        try { socket.close(); } catch (IOException ignored) {}
+        SessionTokens.revoke(sessionToken);
+        sessionToken = null;
+        outbound.closeWhenDrained();
     }
 
     /* Processes password change requests */
@@ -129,6 +197,8 @@ public class ClientHandler implements Runnable {
         String oldP = parts[0], newP = parts.length>1 ? parts[1] : "";
         boolean ok = UserManager.changePassword(username, oldP, newP);
         if (ok) {
+            // Other devices must sign in with the new password rather than resume
+            UserCache.find(username).ifPresent(u -> SessionTokens.revokeOthers(u.userId, sessionToken));
             sendMessage(new Message(
                     MessageType.CHANGE_PASSWORD_SUCCESS,
                     "Server", username, "Password updated."
@@ -141,24 +211,34 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    /* Handles user search requests and returns matching usernames */
+    /*
+     * Handles user search requests and returns matching usernames. Content is either a bare term or
+     * "term\nlimit\ncursor"; only the second form gets the continuation cursor appended after a newline.
+     */
     private void handleSearchUser(Message message) {
-        String searchTerm = message.getContent().toLowerCase();
-        String me         = this.username.toLowerCase();
-        List<String> all = UserManager.getAllUsernames();
-        List<String> matches = all.stream()
-                .filter(name -> name.toLowerCase().contains(searchTerm))
-                .filter(name -> !name.equalsIgnoreCase(me))
-                .collect(Collectors.toList());
-        if (matches.isEmpty()) {
+        String[] parts = message.getContent().split("\n", 3);
+        boolean paged = parts.length > 1;
+        int limit = SEARCH_LIMIT;
+        if (paged) {
+            try {
+                limit = Math.min(Math.max(Integer.parseInt(parts[1].trim()), 1), SEARCH_LIMIT);
+            } catch (NumberFormatException ignored) {}
+        }
+        String cursor = parts.length > 2 ? parts[2].trim() : "";
+        int me = UserCache.find(username).map(user -> user.userId).orElse(0);
+        UsernameIndex.Page page = UsernameIndex.search(parts[0].trim(), me, limit, cursor);
+        if (page.usernames().isEmpty()) {
             sendMessage(new Message(
                     MessageType.USER_NOT_FOUND,
                     "Server",
                     username,
-                    message.getContent()
+                    parts[0]
             ));
         } else {
-            String payload = String.join(",", matches);
+            String payload = String.join(",", page.usernames());
+            if (paged && page.next() != null) {
+                payload += "\n" + page.next();
+            }
             sendMessage(new Message(
                     MessageType.USER_FOUND,
                     "Server",
@@ -193,14 +273,10 @@ public class ClientHandler implements Runnable {
             ));
             ClientHandler targetHandler = ServerMain.onlineUsers.get(target);
             if (targetHandler != null) {
-                List<String> incoming = FriendManager.getIncomingRequests(target);
-                List<String> outgoing = FriendManager.getOutgoingRequests(target);
-                String payload = "INCOMING:" + String.join(",", incoming)
-                        + ";OUTGOING:" + String.join(",", outgoing);
                 targetHandler.sendMessage(new Message(
                         MessageType.PENDING_REQUESTS_LIST,
                         "Server", target,
-                        payload
+                        pendingRequests(target)
                 ));
             }
         } catch (SQLException e) {
@@ -214,15 +290,16 @@ public class ClientHandler implements Runnable {
 
     /* Retrieves and sends the list of pending friend requests */
     private void handleViewPendingRequests(Message message) {
-        try {
-            List<String> incoming = FriendManager.getIncomingRequests(username);
-            List<String> outgoing = FriendManager.getOutgoingRequests(username);
-            String content = "INCOMING:" + String.join(",", incoming)
-                    + ";OUTGOING:" + String.join(",", outgoing);
-            sendMessage(new Message(MessageType.PENDING_REQUESTS_LIST, "Server", username, content));
-        } catch (SQLException e) {
-            sendMessage(new Message(MessageType.PENDING_REQUESTS_LIST, "Server", username, "Error retrieving pending requests"));
-        }
+        sendMessage(new Message(MessageType.PENDING_REQUESTS_LIST, "Server", username, pendingRequests(username)));
+    }
+
+    /* INCOMING:a,b;OUTGOING:c for the user, built in one buffer */
+    private static String pendingRequests(String user) {
+        StringBuilder content = new StringBuilder("INCOMING:");
+        FriendManager.appendIncomingRequests(user, content);
+        content.append(";OUTGOING:");
+        FriendManager.appendOutgoingRequests(user, content);
+        return content.toString();
     }
 
     /* Processes acceptance of a friend request */
@@ -245,15 +322,10 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    /* Sends the list of friends for the user */
+    /* Sends the list of friends for the user; the client orders it for display */
     private void handleFriendList(Message message) {
-        try {
-            List<String> list = FriendManager.getFriends(username);
-            list.sort(String.CASE_INSENSITIVE_ORDER);
-            sendMessage(new Message(MessageType.FRIENDS_LIST, "Server", username, String.join(",", list)));
-        } catch (SQLException e) {
-            sendMessage(new Message(MessageType.FRIENDS_LIST, "Server", username, "Error retrieving friend list"));
-        }
+        String list = FriendManager.appendFriends(username, new StringBuilder()).toString();
+        sendMessage(new Message(MessageType.FRIENDS_LIST, "Server", username, list));
     }
 
     /* Processes rejection of a friend request */
@@ -305,6 +377,10 @@ public class ClientHandler implements Runnable {
         GUIServer.log(username + " has connected to the server.");
     }
 
+    void setSessionToken(String token) {
+        this.sessionToken = token;
+    }
+
     /* Returns the username associated with this client handler */
     public String getUsername() {
         return username;
@@ -0,0 +1,29 @@
+package server;
+
+import java.io.IOException;
+
+/* Accepts client connections and drives their ClientHandlers; the implementation is picked by server.io.mode */
+public interface ConnectionEngine {
+
+    /* Opens the listening socket */
+    void bind(int port) throws IOException;
+
+    /* Runs the accept loop until the engine is shut down */
+    void serve() throws IOException;
+
+    /* Stops accepting and disconnects every client */
+    void shutdown();
+
+    /* Short name used in startup logs */
+    String name();
+
+    static ConnectionEngine create() {
+        return switch (ServerConfig.ioMode()) {
+            case BLOCKING -> new ThreadPerClientEngine(false);
+            case VIRTUAL -> new ThreadPerClientEngine(true);
+            case NIO -> new NioConnectionEngine(
+                    ServerConfig.getInt("server.nio.eventLoops", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                    ServerConfig.getInt("server.nio.workers", Runtime.getRuntime().availableProcessors() * 2));
+        };
+    }
+}
@@ -0,0 +1,125 @@
+package server;
+
+import server.storage.DatabaseStore;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+/*
+ * Server-resident copy of the friends table as an undirected graph over user_id. Each user's friends
+ * are an IntSet, so membership is a hash probe and listing walks the set without allocating. Loaded in
+ * one query at startup; every change is written to MySQL first and applied here only if that succeeds.
+ * Changes to one pair are serialized by a striped ReentrantLock held across the database call, which
+ * unlike a monitor does not pin a virtual thread to its carrier while it waits on MySQL; the read-write
+ * lock is taken only to touch the sets, so a slow round trip never holds up readers.
+ */
+public class FriendGraph {
+    private static final Map<Integer, IntSet> adjacency = new HashMap<>();
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static final ReentrantLock[] pairLocks = new ReentrantLock[64];
+    private static boolean loaded;
+
+    static {
+        for (int i = 0; i < pairLocks.length; i++) {
+            pairLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /* Reads every friendship once; later calls do nothing */
+    public static void load() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (loaded) return;
+            List<int[]> pairs = DatabaseStore.loadFriendships();
+            for (int[] pair : pairs) {
+                link(pair[0], pair[1]);
+            }
+            loaded = true;
+            System.out.println("Loaded " + pairs.size() + " friend links into graph");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static boolean areFriends(int userId, int otherId) {
+        lock.readLock().lock();
+        try {
+            IntSet friends = adjacency.get(userId);
+            return friends != null && friends.contains(otherId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Calls action with each friend's id under the read lock, so it must not block */
+    public static void forEachFriend(int userId, IntConsumer action) {
+        lock.readLock().lock();
+        try {
+            IntSet friends = adjacency.get(userId);
+            if (friends != null) friends.forEach(action);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Stores the friendship in both directions; false if it already existed */
+    public static boolean add(int userId, int friendId) throws SQLException {
+        ReentrantLock pair = pairLock(userId, friendId);
+        pair.lock();
+        try {
+            if (areFriends(userId, friendId)) return false;
+            DatabaseStore.insertFriendship(userId, friendId);
+            lock.writeLock().lock();
+            try {
+                link(userId, friendId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        } finally {
+            pair.unlock();
+        }
+    }
+
+    /* Deletes the friendship in both directions; false if there was none */
+    public static boolean remove(int userId, int friendId) throws SQLException {
+        ReentrantLock pair = pairLock(userId, friendId);
+        pair.lock();
+        try {
+            if (!areFriends(userId, friendId)) return false;
+            DatabaseStore.deleteFriendship(userId, friendId);
+            lock.writeLock().lock();
+            try {
+                unlink(userId, friendId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        } finally {
+            pair.unlock();
+        }
+    }
+
+    /* The same stripe for (a, b) and (b, a) */
+    private static ReentrantLock pairLock(int a, int b) {
+        int hash = Math.min(a, b) * 31 + Math.max(a, b);
+        return pairLocks[Math.floorMod(hash, pairLocks.length)];
+    }
+
+    private static void link(int a, int b) {
+        adjacency.computeIfAbsent(a, k -> new IntSet()).add(b);
+        adjacency.computeIfAbsent(b, k -> new IntSet()).add(a);
+    }
+
+    private static void unlink(int a, int b) {
+        IntSet friends = adjacency.get(a);
+        if (friends != null) friends.remove(b);
+        friends = adjacency.get(b);
+        if (friends != null) friends.remove(a);
+    }
+}
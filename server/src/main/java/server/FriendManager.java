@@ -1,35 +1,15 @@
 package server;
 
-import server.storage.FriendData;
-import server.storage.FriendRequestData;
-import server.storage.DatabaseStore;
+import server.storage.UserData;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.IntConsumer;
 
 /* Manages friend relationships and friend request operations, storing data in MySQL with case-insensitive username handling */
 public class FriendManager {
-    /* Loads friend relationships from the MySQL database */
-    private static List<FriendData> loadFriends() throws SQLException {
-        return DatabaseStore.loadFriends();
-    }
-
-    /* Saves friend relationships to the MySQL database */
-    private static void saveFriends(List<FriendData> friends) throws SQLException {
-        DatabaseStore.saveFriends(friends);
-    }
-
-    /* Loads friend request data from the MySQL database */
-    private static List<FriendRequestData> loadRequests() throws SQLException {
-        return DatabaseStore.loadRequests();
-    }
-
-    /* Saves friend request data to the MySQL database */
-    private static void saveRequests(List<FriendRequestData> requests) throws SQLException {
-        DatabaseStore.saveRequests(requests);
-    }
-
     /* Sends a friend request from one user to another, preventing self-requests, duplicates, and requests to existing friends */
     public static void sendRequest(String fromUser, String toUser) throws SQLException {
         if (fromUser.equalsIgnoreCase(toUser)) {
@@ -38,138 +18,101 @@ public class FriendManager {
         }
 
         // Check if both users exist
-        if (!UserManager.findUser(fromUser).isPresent()) {
+        Optional<UserData> sendingUser = UserManager.findUser(fromUser);
+        Optional<UserData> receivingUser = UserManager.findUser(toUser);
+        if (sendingUser.isEmpty()) {
             System.out.println("Sender does not exist: " + fromUser);
             return;
         }
-        if (!UserManager.findUser(toUser).isPresent()) {
+        if (receivingUser.isEmpty()) {
             System.out.println("Receiver does not exist: " + toUser);
             return;
         }
+        int senderId = sendingUser.get().userId;
+        int receiverId = receivingUser.get().userId;
 
-        if (getFriends(fromUser).stream().anyMatch(f -> f.equalsIgnoreCase(toUser))) {
+        if (FriendGraph.areFriends(senderId, receiverId)) {
             System.out.println("Users are already friends: " + fromUser + ", " + toUser);
             return;
         }
 
-        List<FriendRequestData> requests = loadRequests();
-        FriendRequestData sender = requests.stream()
-                .filter(r -> r.getUsername().equalsIgnoreCase(fromUser))
-                .findFirst()
-                .orElseGet(() -> {
-                    FriendRequestData r = new FriendRequestData(fromUser);
-                    requests.add(r);
-                    return r;
-                });
-
-        FriendRequestData receiver = requests.stream()
-                .filter(r -> r.getUsername().equalsIgnoreCase(toUser))
-                .findFirst()
-                .orElseGet(() -> {
-                    FriendRequestData r = new FriendRequestData(toUser);
-                    requests.add(r);
-                    return r;
-                });
-
-        boolean alreadySent = sender.getOutgoing().stream()
-                .anyMatch(u -> u.equalsIgnoreCase(toUser));
-        if (alreadySent) {
+        if (!FriendRequestIndex.send(senderId, receiverId)) {
             System.out.println("Friend request already sent from " + fromUser + " to " + toUser);
             return;
         }
-
-        sender.getOutgoing().add(toUser);
-        receiver.getIncoming().add(fromUser);
-        saveRequests(requests);
         System.out.println("Friend request saved: " + fromUser + " -> " + toUser);
     }
 
-    /* Accepts a friend request, removes it from pending requests, and establishes a mutual friend relationship */
+    /* Accepts a friend request, marks it accepted, and establishes a mutual friend relationship */
     public static void acceptRequest(String requester, String target) throws SQLException {
-        List<FriendRequestData> requests = loadRequests();
-        for (FriendRequestData r : requests) {
-            if (r.getUsername().equalsIgnoreCase(target)) {
-                r.getIncoming().removeIf(u -> u.equalsIgnoreCase(requester));
-            }
-            if (r.getUsername().equalsIgnoreCase(requester)) {
-                r.getOutgoing().removeIf(u -> u.equalsIgnoreCase(target));
-            }
-        }
-        saveRequests(requests);
-
-        List<FriendData> friends = loadFriends();
-        addFriend(friends, requester, target);
-        addFriend(friends, target, requester);
-        saveFriends(friends);
+        Optional<UserData> a = UserManager.findUser(requester);
+        Optional<UserData> b = UserManager.findUser(target);
+        if (a.isEmpty() || b.isEmpty()) return;
+        // Friends first: if the status update then fails, accepting again is harmless
+        FriendGraph.add(a.get().userId, b.get().userId);
+        FriendRequestIndex.resolve(a.get().userId, b.get().userId, true);
+        // A crossing request the other way is settled by the same acceptance
+        FriendRequestIndex.resolve(b.get().userId, a.get().userId, true);
     }
 
-    /* Rejects a pending friend request and removes it from storage */
+    /* Rejects a pending friend request by marking it rejected */
     public static void rejectRequest(String requester, String target) throws SQLException {
-        List<FriendRequestData> requests = loadRequests();
-        for (FriendRequestData r : requests) {
-            if (r.getUsername().equalsIgnoreCase(target)) {
-                r.getIncoming().removeIf(u -> u.equalsIgnoreCase(requester));
-            }
-            if (r.getUsername().equalsIgnoreCase(requester)) {
-                r.getOutgoing().removeIf(u -> u.equalsIgnoreCase(target));
-            }
-        }
-        saveRequests(requests);
+        Optional<UserData> a = UserManager.findUser(requester);
+        Optional<UserData> b = UserManager.findUser(target);
+        if (a.isEmpty() || b.isEmpty()) return;
+        FriendRequestIndex.resolve(a.get().userId, b.get().userId, false);
     }
 
     /* Removes a mutual friend relationship between two users */
     public static void removeFriend(String user, String friend) throws SQLException {
-        List<FriendData> friends = loadFriends();
-        for (FriendData f : friends) {
-            if (f.getUsername().equalsIgnoreCase(user)) {
-                f.getFriends().removeIf(u -> u.equalsIgnoreCase(friend));
-            }
-            if (f.getUsername().equalsIgnoreCase(friend)) {
-                f.getFriends().removeIf(u -> u.equalsIgnoreCase(user));
-            }
+        Optional<UserData> a = UserManager.findUser(user);
+        Optional<UserData> b = UserManager.findUser(friend);
+        if (a.isPresent() && b.isPresent()) {
+            FriendGraph.remove(a.get().userId, b.get().userId);
         }
-        saveFriends(friends);
     }
 
-    /* Adds a friend to a user's friend list if not already present */
-    private static void addFriend(List<FriendData> friends, String user, String friend) {
-        FriendData data = friends.stream()
-                .filter(f -> f.getUsername().equalsIgnoreCase(user))
-                .findFirst()
-                .orElseGet(() -> {
-                    FriendData fd = new FriendData(user);
-                    friends.add(fd);
-                    return fd;
-                });
-        if (data.getFriends().stream().noneMatch(u -> u.equalsIgnoreCase(friend))) {
-            data.getFriends().add(friend);
-        }
+    /* An id index walked without boxing: the FriendRequestIndex walks */
+    @FunctionalInterface
+    private interface IdIndex {
+        void forEach(int userId, IntConsumer action);
+    }
+
+    /* Appends the user's confirmed friends to out, comma separated and sorted case-insensitively; clients show it as sent */
+    public static StringBuilder appendFriends(String username, StringBuilder out) {
+        Optional<UserData> user = UserManager.findUser(username);
+        if (user.isEmpty()) return out;
+        List<String> names = new ArrayList<>();
+        FriendGraph.forEachFriend(user.get().userId, id -> {
+            String name = UserCache.username(id);
+            if (name != null) names.add(name);
+        });
+        names.sort(String.CASE_INSENSITIVE_ORDER);
+        return out.append(String.join(",", names));
     }
 
-    /* Retrieves the list of confirmed friends for a specified user */
-    public static List<String> getFriends(String username) throws SQLException {
-        return loadFriends().stream()
-                .filter(f -> f.getUsername().equalsIgnoreCase(username))
-                .findFirst()
-                .map(FriendData::getFriends)
-                .orElseGet(ArrayList::new);
+    /* Appends the users who have asked this user, comma separated */
+    public static StringBuilder appendIncomingRequests(String username, StringBuilder out) {
+        return appendUsernames(username, FriendRequestIndex::forEachIncoming, out);
     }
 
-    /* Retrieves the list of incoming friend requests for a specified user */
-    public static List<String> getIncomingRequests(String username) throws SQLException {
-        return loadRequests().stream()
-                .filter(r -> r.getUsername().equalsIgnoreCase(username))
-                .findFirst()
-                .map(FriendRequestData::getIncoming)
-                .orElseGet(ArrayList::new);
+    /* Appends the users this user has asked, comma separated */
+    public static StringBuilder appendOutgoingRequests(String username, StringBuilder out) {
+        return appendUsernames(username, FriendRequestIndex::forEachOutgoing, out);
     }
 
-    /* Retrieves the list of outgoing friend requests sent by a specified user */
-    public static List<String> getOutgoingRequests(String username) throws SQLException {
-        return loadRequests().stream()
-                .filter(r -> r.getUsername().equalsIgnoreCase(username))
-                .findFirst()
-                .map(FriendRequestData::getOutgoing)
-                .orElseGet(ArrayList::new);
+    /* Maps the ids an index yields for the user back to current usernames, straight into the reply */
+    private static StringBuilder appendUsernames(String username, IdIndex index, StringBuilder out) {
+        Optional<UserData> user = UserManager.findUser(username);
+        if (user.isPresent()) {
+            int start = out.length();
+            index.forEach(user.get().userId, id -> {
+                String name = UserCache.username(id);
+                if (name == null) return;
+                if (out.length() > start) out.append(',');
+                out.append(name);
+            });
+        }
+        return out;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+package server;
+
+import server.storage.DatabaseStore;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+/*
+ * Pending friend requests held in memory as incoming and outgoing IntSets keyed by user_id, loaded in one
+ * query at startup. Rows in friend_requests are never rewritten wholesale: sending upserts one row back to
+ * PENDING, and accepting or rejecting updates that row's status. MySQL is written first, memory after.
+ * Changes to one pair of users are serialized by a striped lock held across the database call (a
+ * ReentrantLock, so a virtual thread waiting on MySQL unmounts instead of pinning its carrier); the
+ * read-write lock is taken only to touch the sets, so a slow round trip never holds up readers.
+ */
+public class FriendRequestIndex {
+    private static final Map<Integer, IntSet> incoming = new HashMap<>();
+    private static final Map<Integer, IntSet> outgoing = new HashMap<>();
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static final ReentrantLock[] pairLocks = new ReentrantLock[64];
+    private static boolean loaded;
+
+    static {
+        for (int i = 0; i < pairLocks.length; i++) {
+            pairLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /* Reads every pending request once; later calls do nothing */
+    public static void load() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (loaded) return;
+            List<int[]> pending = DatabaseStore.loadPendingFriendRequests();
+            for (int[] request : pending) {
+                link(request[0], request[1]);
+            }
+            loaded = true;
+            System.out.println("Loaded " + pending.size() + " pending friend requests");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static boolean isPending(int senderId, int receiverId) {
+        lock.readLock().lock();
+        try {
+            IntSet sent = outgoing.get(senderId);
+            return sent != null && sent.contains(receiverId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Calls action with the id of each user who asked userId; must not block */
+    public static void forEachIncoming(int userId, IntConsumer action) {
+        forEach(incoming, userId, action);
+    }
+
+    /* Calls action with the id of each user userId has asked; must not block */
+    public static void forEachOutgoing(int userId, IntConsumer action) {
+        forEach(outgoing, userId, action);
+    }
+
+    /* Records a pending request; false if one was already pending */
+    public static boolean send(int senderId, int receiverId) throws SQLException {
+        ReentrantLock pair = pairLock(senderId, receiverId);
+        pair.lock();
+        try {
+            if (isPending(senderId, receiverId)) return false;
+            DatabaseStore.upsertPendingFriendRequest(senderId, receiverId);
+            lock.writeLock().lock();
+            try {
+                link(senderId, receiverId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        } finally {
+            pair.unlock();
+        }
+    }
+
+    /* Marks a request ACCEPTED or REJECTED; false if it was not pending */
+    public static boolean resolve(int senderId, int receiverId, boolean accepted) throws SQLException {
+        ReentrantLock pair = pairLock(senderId, receiverId);
+        pair.lock();
+        try {
+            if (!isPending(senderId, receiverId)) return false;
+            DatabaseStore.setFriendRequestStatus(senderId, receiverId, accepted ? "ACCEPTED" : "REJECTED");
+            lock.writeLock().lock();
+            try {
+                unlink(senderId, receiverId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        } finally {
+            pair.unlock();
+        }
+    }
+
+    private static void forEach(Map<Integer, IntSet> index, int userId, IntConsumer action) {
+        lock.readLock().lock();
+        try {
+            IntSet ids = index.get(userId);
+            if (ids != null) ids.forEach(action);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* The same stripe for both directions between two users */
+    private static ReentrantLock pairLock(int a, int b) {
+        int hash = Math.min(a, b) * 31 + Math.max(a, b);
+        return pairLocks[Math.floorMod(hash, pairLocks.length)];
+    }
+
+    private static void link(int senderId, int receiverId) {
+        outgoing.computeIfAbsent(senderId, k -> new IntSet()).add(receiverId);
+        incoming.computeIfAbsent(receiverId, k -> new IntSet()).add(senderId);
+    }
+
+    private static void unlink(int senderId, int receiverId) {
+        IntSet sent = outgoing.get(senderId);
+        if (sent != null) sent.remove(receiverId);
+        IntSet received = incoming.get(receiverId);
+        if (received != null) received.remove(senderId);
+    }
+}
@@ -8,16 +8,13 @@ import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.sql.SQLException;
 
 public class GUIServer extends Application {
     private static TextArea logArea;
     private static final int PORT = 12345;
 
-    private ServerSocket serverSocket;
-    private final CopyOnWriteArrayList<ClientHandler> clientHandlers = new CopyOnWriteArrayList<>();
+    private final ConnectionEngine engine = ConnectionEngine.create();
 
     public static void main(String[] args) {
         launch(args); // Launch JavaFX GUI
@@ -45,17 +42,14 @@ public class GUIServer extends Application {
 
     private void startServer() {
         Thread serverThread = new Thread(() -> {
-            try (ServerSocket ss = new ServerSocket(PORT)) {
-                this.serverSocket = ss;
-                log("Server started on port " + PORT);
-
-                while (!ss.isClosed()) {
-                    Socket clientSocket = ss.accept();
-                    ClientHandler handler = new ClientHandler(clientSocket);
-                    clientHandlers.add(handler);
-                    new Thread(handler).start();
-                }
-            } catch (IOException e) {
+            try {
+                UserCache.load();
+                FriendGraph.load();
+                FriendRequestIndex.load();
+                engine.bind(PORT);
+                log("Server started on port " + PORT + " (" + engine.name() + ")");
+                engine.serve();
+            } catch (IOException | SQLException e) {
                 log("Server stopped or error: " + e.getMessage());
             }
         });
@@ -64,23 +58,17 @@ public class GUIServer extends Application {
     }
 
     private void stopServer() {
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();  // Stop accepting new connections
-                log("Server socket closed.");
-            }
-
-            for (ClientHandler handler : clientHandlers) {
-                handler.shutdown(); // You must implement this in ClientHandler
-            }
-
-            log("All clients disconnected.");
-        } catch (IOException e) {
-            log("Error shutting down server: " + e.getMessage());
-        }
+        engine.shutdown();  // Stops accepting and disconnects every client
+        UserCache.flush();
+        log("All clients disconnected.");
     }
 
+    /* Appends to the server window, or stdout when running headless via ServerMain */
     public static void log(String msg) {
+        if (logArea == null) {
+            System.out.println(msg);
+            return;
+        }
         Platform.runLater(() -> logArea.appendText(msg + "\n"));
     }
 }
@@ -0,0 +1,111 @@
+package server;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/*
+ * Open-addressing hash set of positive ints (user ids), so adjacency lists hold no boxed Integers.
+ * 0 marks an empty slot; removal shifts the following probe run back instead of leaving tombstones.
+ * Not thread-safe.
+ */
+final class IntSet {
+    private int[] slots;
+    private int size;
+
+    IntSet() {
+        this(4);
+    }
+
+    IntSet(int expected) {
+        int capacity = 8;
+        while (capacity * 3 / 4 < expected) capacity <<= 1;
+        slots = new int[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int value) {
+        int mask = slots.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == value) return true;
+            if (slot == 0) return false;
+        }
+    }
+
+    /* Returns false if the value was already present */
+    boolean add(int value) {
+        if (value <= 0) throw new IllegalArgumentException("ids are positive: " + value);
+        if ((size + 1) * 4 > slots.length * 3) grow();
+        int mask = slots.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == value) return false;
+            if (slot == 0) {
+                slots[i] = value;
+                size++;
+                return true;
+            }
+        }
+    }
+
+    /* Returns false if the value was not present */
+    boolean remove(int value) {
+        int mask = slots.length - 1;
+        int i = mix(value) & mask;
+        while (slots[i] != value) {
+            if (slots[i] == 0) return false;
+            i = (i + 1) & mask;
+        }
+        // Pull later entries of the probe run into the hole when their home slot allows it
+        int hole = i;
+        for (int j = (hole + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+            int home = mix(slots[j]) & mask;
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                slots[hole] = slots[j];
+                hole = j;
+            }
+        }
+        slots[hole] = 0;
+        size--;
+        return true;
+    }
+
+    void forEach(IntConsumer action) {
+        for (int slot : slots) {
+            if (slot != 0) action.accept(slot);
+        }
+    }
+
+    int[] toArray() {
+        int[] out = new int[size];
+        int n = 0;
+        for (int slot : slots) {
+            if (slot != 0) out[n++] = slot;
+        }
+        return out;
+    }
+
+    private void grow() {
+        int[] old = slots;
+        slots = new int[old.length * 2];
+        size = 0;
+        for (int slot : old) {
+            if (slot != 0) add(slot);
+        }
+    }
+
+    private static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        int[] values = toArray();
+        Arrays.sort(values);
+        return Arrays.toString(values);
+    }
+}
@@ -0,0 +1,317 @@
+package server;
+
+import shared.Message;
+import shared.MessageCodec;
+import shared.MessageStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/*
+ * A client socket driven by an NioEventLoop. The loop thread reads bytes and decodes complete Messages;
+ * handling runs on the worker pool, one message at a time per connection so ClientHandler sees the
+ * same ordering it gets in blocking mode. Any thread may send; messages go through an OutboundQueue
+ * whose single writer is the loop thread, so encoding and socket writes never leave it.
+ *
+ * The first four bytes pick the protocol, as in MessageStream.accept: MessageCodec frames for clients
+ * that open with its HELLO, Java serialization for older clients.
+ */
+final class NioConnection implements OutboundQueue.Sink {
+    private static final int INITIAL_BUFFER = 1024;
+    private static final int MAX_BUFFER = MessageCodec.MAX_FRAME + 8;
+    private static final int MAX_IDLE_OUT_BUFFER = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final Executor workers;
+    private final Consumer<NioConnection> onClosed;
+    private final ClientHandler handler;
+    private final OutboundQueue outbound;
+    private volatile SelectionKey key;
+
+    // Inbound state, only touched by the loop thread. Bytes in [readPos, scanPos) are complete objects.
+    private byte[] in = new byte[INITIAL_BUFFER];
+    private ByteBuffer inView = ByteBuffer.wrap(in);
+    private int readPos;
+    private int scanPos;
+    private int writePos;
+    private boolean negotiated;
+    private MessageCodec decoder;
+    private SerializationFrameScanner scanner;
+    private ObjectInputStream objectIn;
+
+    private final Queue<Runnable> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // Outbound state, only touched by the loop thread. Frames are appended to out and [0, position) is unsent.
+    private ByteBuffer out = ByteBuffer.allocate(INITIAL_BUFFER);
+    private MessageCodec encoder;
+    private ByteArrayOutputStream outBytes;
+    private ObjectOutputStream objectOut;
+    private boolean writeInterest;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    NioConnection(SocketChannel channel, NioEventLoop loop, Executor workers, Consumer<NioConnection> onClosed) throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        this.workers = workers;
+        this.onClosed = onClosed;
+        this.outbound = new OutboundQueue(loop::execute, this);
+        this.handler = new ClientHandler(this, outbound);
+    }
+
+    /* Called on the loop thread */
+    void register(Selector selector) {
+        try {
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    /* Called on the loop thread when the channel has bytes */
+    void onReadable() {
+        try {
+            if (writePos == in.length) {
+                makeRoom();
+            }
+            inView.limit(in.length).position(writePos);
+            int n = channel.read(inView);
+            if (n < 0) {
+                closeNow();
+                return;
+            }
+            writePos += n;
+            decodeFrames();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            if (handler.getUsername() != null) {
+                System.err.println("Dropping connection for " + handler.getUsername() + ": " + e.getMessage());
+            }
+            closeNow();
+        }
+    }
+
+    /* Called on the loop thread when a previously short write can continue */
+    void onWritable() {
+        outbound.resume();
+    }
+
+    private void decodeFrames() throws IOException, ClassNotFoundException {
+        if (!negotiated) {
+            if (writePos - readPos < 4) return;
+            negotiate(Arrays.copyOfRange(in, readPos, readPos + 4));
+        }
+        if (decoder != null) {
+            inView.limit(writePos).position(readPos);
+            Message message;
+            while ((message = decoder.decode(inView)) != null) {
+                readPos = inView.position();
+                dispatch(message);
+            }
+        } else {
+            int end;
+            while ((end = scanner.scan(in, scanPos, writePos)) >= 0) {
+                scanPos = end;
+                dispatch((Message) objectIn.readObject());
+            }
+        }
+        if (readPos == writePos) {
+            readPos = scanPos = writePos = 0;
+        }
+    }
+
+    /* Picks the wire format from the client's first four bytes and answers with our own preamble */
+    private void negotiate(byte[] preamble) throws IOException {
+        if (Arrays.equals(preamble, MessageCodec.HELLO)) {
+            readPos += 4;
+            decoder = new MessageCodec();
+            encoder = new MessageCodec();
+            out.put(MessageCodec.HELLO);
+        } else if (Arrays.equals(preamble, MessageStream.LEGACY_HEADER)) {
+            // The header stays in the buffer for ObjectInputStream to consume
+            scanPos = readPos + 4;
+            scanner = new SerializationFrameScanner();
+            objectIn = new ObjectInputStream(inbound);
+            outBytes = new ByteArrayOutputStream(256);
+            objectOut = new ObjectOutputStream(outBytes);
+            objectOut.flush();
+            appendOutBytes();
+        } else {
+            throw new StreamCorruptedException("Unknown protocol preamble " + Arrays.toString(preamble));
+        }
+        negotiated = true;
+        flush();
+    }
+
+    private void dispatch(Message message) {
+        execute(() -> {
+            if (closed.get()) return;
+            try {
+                handler.dispatch(message);
+            } catch (Exception e) {
+                closeNow();
+            }
+        });
+    }
+
+    /* Compacts consumed bytes away, growing the buffer only when a single object needs it */
+    private void makeRoom() throws IOException {
+        if (readPos > 0) {
+            System.arraycopy(in, readPos, in, 0, writePos - readPos);
+            scanPos -= readPos;
+            writePos -= readPos;
+            readPos = 0;
+            return;
+        }
+        if (in.length >= MAX_BUFFER) {
+            throw new IOException("Inbound message exceeds " + MAX_BUFFER + " bytes");
+        }
+        byte[] grown = new byte[in.length * 2];
+        System.arraycopy(in, 0, grown, 0, writePos);
+        in = grown;
+        inView = ByteBuffer.wrap(in);
+    }
+
+    /* ObjectInputStream only ever sees bytes the scanner has proven to be complete */
+    private final InputStream inbound = new InputStream() {
+        @Override
+        public int read() {
+            return readPos < scanPos ? in[readPos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            int n = Math.min(len, scanPos - readPos);
+            if (n <= 0) return -1;
+            System.arraycopy(in, readPos, b, off, n);
+            readPos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return scanPos - readPos;
+        }
+    };
+
+    /* Queues the task behind earlier work for this connection */
+    private void execute(Runnable task) {
+        inbox.add(task);
+        if (scheduled.compareAndSet(false, true)) {
+            workers.execute(this::drainInbox);
+        }
+    }
+
+    private void drainInbox() {
+        while (true) {
+            Runnable task;
+            while ((task = inbox.poll()) != null) {
+                task.run();
+            }
+            scheduled.set(false);
+            if (inbox.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /* OutboundQueue.Sink: called on the loop thread */
+    @Override
+    public void write(Message msg) throws IOException {
+        if (encoder != null) {
+            if (!encoder.encode(msg, out)) {
+                ensureOutRoom(encoder.frameSize(msg));
+                encoder.encode(msg, out);
+            }
+        } else if (objectOut != null) {
+            objectOut.writeObject(msg);
+            objectOut.flush();
+            appendOutBytes();
+        } else {
+            throw new IOException("Protocol not negotiated yet");
+        }
+    }
+
+    private void appendOutBytes() {
+        ensureOutRoom(outBytes.size());
+        out.put(outBytes.toByteArray());
+        outBytes.reset();
+    }
+
+    private void ensureOutRoom(int bytes) {
+        if (out.remaining() >= bytes) return;
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+        out.flip();
+        grown.put(out);
+        out = grown;
+    }
+
+    /* One write for everything encoded since the last flush; waits for OP_WRITE if the socket is full */
+    @Override
+    public boolean flush() throws IOException {
+        if (out.position() > 0) {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            if (out.position() > 0) {
+                setWriteInterest(true);
+                return false;
+            }
+        }
+        if (out.capacity() > MAX_IDLE_OUT_BUFFER) {
+            out = ByteBuffer.allocate(INITIAL_BUFFER);
+        }
+        setWriteInterest(false);
+        return true;
+    }
+
+    @Override
+    public void closeGracefully() {
+        closeNow();
+    }
+
+    @Override
+    public void abort(String reason) {
+        System.err.println("Dropping connection" + (handler.getUsername() != null ? " for " + handler.getUsername() : "")
+                + ": " + reason);
+        closeNow();
+    }
+
+    private void setWriteInterest(boolean on) {
+        if (writeInterest == on) return;
+        writeInterest = on;
+        SelectionKey k = key;
+        if (k != null && k.isValid()) {
+            k.interestOps(on ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    void closeNow() {
+        if (!closed.compareAndSet(false, true)) return;
+        SelectionKey k = key;
+        if (k != null) {
+            k.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+        outbound.discard();
+        execute(handler::disconnected);
+        onClosed.accept(this);
+    }
+}
@@ -0,0 +1,105 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Non-blocking I/O model: a few selector threads own every socket and decoded messages run on a worker pool */
+public class NioConnectionEngine implements ConnectionEngine {
+    private static final long ACCEPT_RETRY_MS = 100;
+
+    private final NioEventLoop[] loops;
+    private final ExecutorService workers;
+    private final Set<NioConnection> connections = ConcurrentHashMap.newKeySet();
+    private ServerSocketChannel serverChannel;
+    private int nextLoop;
+
+    public NioConnectionEngine(int eventLoops, int workerThreads) {
+        this.loops = new NioEventLoop[Math.max(1, eventLoops)];
+        AtomicInteger workerId = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), r -> {
+            Thread t = new Thread(r, "nio-worker-" + workerId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public void bind(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop("nio-loop-" + (i + 1));
+            loops[i].start();
+        }
+    }
+
+    @Override
+    public void serve() throws IOException {
+        try (ServerSocketChannel ss = serverChannel) {
+            while (ss.isOpen()) {
+                SocketChannel channel;
+                try {
+                    channel = ss.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                } catch (IOException e) {
+                    /* e.g. out of file descriptors: pause instead of spinning, then keep accepting */
+                    System.err.println("Accept failed: " + e.getMessage());
+                    try {
+                        Thread.sleep(ACCEPT_RETRY_MS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    continue;
+                }
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    NioEventLoop loop = loops[nextLoop++ % loops.length];
+                    NioConnection connection = new NioConnection(channel, loop, workers, connections::remove);
+                    connections.add(connection);
+                    loop.register(connection);
+                } catch (IOException e) {
+                    /* One client that resets during setup only costs its own connection */
+                    System.err.println("Dropping new connection: " + e.getMessage());
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (NioConnection connection : connections) {
+            connection.closeNow();
+        }
+        for (NioEventLoop loop : loops) {
+            if (loop != null) loop.stop();
+        }
+        workers.shutdown();
+    }
+
+    @Override
+    public String name() {
+        return "nio, " + loops.length + " event loops";
+    }
+}
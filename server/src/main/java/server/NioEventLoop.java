@@ -0,0 +1,95 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/* One selector thread owning a share of the NIO connections; other threads hand it work through execute() */
+final class NioEventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /* Runs the task on the loop thread before the next select */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    void register(NioConnection connection) {
+        execute(() -> connection.register(selector));
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                runTasks();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (RuntimeException e) {
+                        /* A bug in one connection's handling drops that connection, not the whole loop */
+                        e.printStackTrace();
+                        connection.abort("unexpected " + e);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(thread.getName() + " select failed: " + e.getMessage());
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            try {
+                ((NioConnection) key.attachment()).closeNow();
+            } catch (RuntimeException e) {
+                System.err.println(thread.getName() + " failed to close a connection: " + e);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println(thread.getName() + " task failed: " + e);
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package server;
+
+import shared.Message;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Bounded multi-producer, single-consumer queue of messages waiting to go out on one connection.
+ * Any thread may offer(); at most one drain runs at a time on the writer executor and writes a whole
+ * batch before flushing once. Above the high watermark the connection reports itself unwritable until
+ * it drains below the low watermark; a consumer so slow that the queue reaches capacity is disconnected
+ * rather than allowed to hold up the threads that write to it. A message may carry a callback that runs
+ * on the writer once the flush that sent it has succeeded; it never runs if the message is dropped.
+ */
+final class OutboundQueue {
+    /* The transport the drain writes to */
+    interface Sink {
+        void write(Message msg) throws IOException;
+
+        /* Returns false if the transport could not take everything yet; call resume() once it can */
+        boolean flush() throws IOException;
+
+        /* Called after everything queued before closeWhenDrained() has been flushed */
+        void closeGracefully();
+
+        /* Called on overflow or a write error; the connection should be dropped at once */
+        void abort(String reason);
+    }
+
+    private record Entry(Message msg, Runnable onWritten) {}
+
+    private static final Entry CLOSE = new Entry(null, null);
+
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private final Executor writer;
+    private final Sink sink;
+    private final int capacity;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final int flushBatch;
+    private volatile boolean writable = true;
+    private volatile boolean closed;
+    // Callbacks of messages written since the last successful flush; only touched by the drain
+    private final List<Runnable> unflushed = new ArrayList<>();
+
+    OutboundQueue(Executor writer, Sink sink) {
+        this.writer = writer;
+        this.sink = sink;
+        this.capacity = Math.max(1, ServerConfig.getInt("server.outbound.capacity", 1024));
+        this.highWatermark = Math.min(capacity, ServerConfig.getInt("server.outbound.highWatermark", 256));
+        this.lowWatermark = Math.min(highWatermark, ServerConfig.getInt("server.outbound.lowWatermark", 64));
+        this.flushBatch = Math.max(1, ServerConfig.getInt("server.outbound.flushBatch", 64));
+    }
+
+    /* Queues a message; returns false if the connection is closed or has just been dropped for overflowing */
+    boolean offer(Message msg) {
+        return offer(msg, null);
+    }
+
+    /* As offer(msg); onWritten runs on the writer thread after the message has been flushed to the sink */
+    boolean offer(Message msg, Runnable onWritten) {
+        if (closed) return false;
+        int queued = size.incrementAndGet();
+        if (queued > capacity) {
+            size.decrementAndGet();
+            fail("outbound queue overflow (" + capacity + " messages)");
+            return false;
+        }
+        queue.add(new Entry(msg, onWritten));
+        if (queued >= highWatermark) {
+            writable = false;
+        }
+        schedule();
+        return true;
+    }
+
+    /* Lets already queued messages go out, then closes the connection; later offers are refused */
+    void closeWhenDrained() {
+        if (closed) return;
+        closed = true;
+        queue.add(CLOSE);
+        schedule();
+    }
+
+    /* Drops whatever is queued once the connection is already gone */
+    void discard() {
+        closed = true;
+        queue.clear();
+    }
+
+    /* False while the backlog is between the high and low watermarks */
+    boolean isWritable() {
+        return writable && !closed;
+    }
+
+    /* Continues a drain that stopped because the sink could not take more */
+    void resume() {
+        drain();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            writer.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                int written = 0;
+                boolean closing = false;
+                Entry next;
+                while (written < flushBatch && (next = queue.poll()) != null) {
+                    if (next == CLOSE) {
+                        closing = true;
+                        break;
+                    }
+                    sink.write(next.msg);
+                    if (next.onWritten != null) unflushed.add(next.onWritten);
+                    written++;
+                }
+                if (written > 0 && size.addAndGet(-written) <= lowWatermark) {
+                    writable = true;
+                }
+                if (!sink.flush()) {
+                    // Still scheduled: the sink calls resume() when the socket drains
+                    if (closing) queue.add(CLOSE);
+                    return;
+                }
+                if (!unflushed.isEmpty()) {
+                    for (Runnable callback : unflushed) {
+                        callback.run();
+                    }
+                    unflushed.clear();
+                }
+                if (closing) {
+                    queue.clear();
+                    sink.closeGracefully();
+                    return;
+                }
+                if (written == flushBatch) continue;
+                scheduled.set(false);
+                if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            fail(e.getMessage());
+        } catch (RuntimeException e) {
+            // e.g. a message the codec cannot encode; scheduled stays set, so the connection must go
+            e.printStackTrace();
+            fail("unexpected " + e);
+        }
+    }
+
+    private void fail(String reason) {
+        closed = true;
+        queue.clear();
+        if (failed.compareAndSet(false, true)) {
+            sink.abort(reason);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package server;
+
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Walks the Java serialization grammar without building objects, so a non-blocking reader can tell
+ * whether a complete top-level object has arrived before handing the bytes to ObjectInputStream.
+ * Only class descriptors are remembered (by wire handle); every other handle is just counted.
+ */
+final class SerializationFrameScanner implements ObjectStreamConstants {
+    /* Thrown internally when the buffer ends mid-object; preallocated because it is expected */
+    private static final class Underflow extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Underflow() { super(null, null, false, false); }
+    }
+    private static final Underflow UNDERFLOW = new Underflow();
+
+    /* Field layout of one class descriptor in the stream */
+    private static final class ClassLayout {
+        final byte flags;
+        final char arrayElement;
+        final char[] fieldTypes;
+        ClassLayout superLayout;
+
+        ClassLayout(byte flags, char arrayElement, char[] fieldTypes) {
+            this.flags = flags;
+            this.arrayElement = arrayElement;
+            this.fieldTypes = fieldTypes;
+        }
+    }
+
+    private static final ClassLayout NO_DESC = new ClassLayout((byte) 0, (char) 0, new char[0]);
+
+    private Map<Integer, ClassLayout> layouts = new HashMap<>();
+    private final List<Integer> addedThisScan = new ArrayList<>();
+    private int nextHandle = baseWireHandle;
+
+    private byte[] buf;
+    private int pos;
+    private int limit;
+
+    /* Returns the offset just past the next complete top-level object in buf[from, to), or -1 if more bytes are needed */
+    int scan(byte[] buf, int from, int to) throws StreamCorruptedException {
+        this.buf = buf;
+        this.pos = from;
+        this.limit = to;
+        Map<Integer, ClassLayout> savedLayouts = layouts;
+        int savedHandle = nextHandle;
+        addedThisScan.clear();
+        try {
+            while (peek() == TC_RESET) {
+                pos++;
+                reset();
+            }
+            readContent();
+            return pos;
+        } catch (Underflow u) {
+            if (layouts != savedLayouts) {
+                layouts = savedLayouts;
+            } else {
+                for (Integer handle : addedThisScan) {
+                    layouts.remove(handle);
+                }
+            }
+            nextHandle = savedHandle;
+            return -1;
+        } finally {
+            this.buf = null;
+        }
+    }
+
+    private void reset() {
+        layouts = new HashMap<>();
+        nextHandle = baseWireHandle;
+    }
+
+    private void readContent() throws StreamCorruptedException {
+        byte tc = peek();
+        if (tc == TC_BLOCKDATA) {
+            pos++;
+            skip(readUnsignedByte());
+        } else if (tc == TC_BLOCKDATALONG) {
+            pos++;
+            skip(readInt());
+        } else {
+            readObject();
+        }
+    }
+
+    private ClassLayout readObject() throws StreamCorruptedException {
+        byte tc = readByte();
+        switch (tc) {
+            case TC_NULL:
+                return null;
+            case TC_REFERENCE:
+                return layouts.getOrDefault(readInt(), NO_DESC);
+            case TC_CLASSDESC:
+            case TC_PROXYCLASSDESC:
+                pos--;
+                return readClassDesc();
+            case TC_OBJECT: {
+                ClassLayout desc = readClassDesc();
+                assignHandle(null);
+                readClassData(desc);
+                return NO_DESC;
+            }
+            case TC_STRING:
+                skip(readUnsignedShort());
+                assignHandle(null);
+                return NO_DESC;
+            case TC_LONGSTRING: {
+                long len = readLong();
+                if (len < 0 || len > Integer.MAX_VALUE) throw new StreamCorruptedException("bad long string length " + len);
+                skip((int) len);
+                assignHandle(null);
+                return NO_DESC;
+            }
+            case TC_ARRAY: {
+                ClassLayout desc = readClassDesc();
+                assignHandle(null);
+                int size = readInt();
+                if (desc == null || desc.arrayElement == 0 || size < 0) throw new StreamCorruptedException("bad array");
+                int width = primitiveWidth(desc.arrayElement);
+                if (width > 0) {
+                    skip((int) Math.min(Integer.MAX_VALUE, (long) size * width));
+                } else {
+                    for (int i = 0; i < size; i++) readObject();
+                }
+                return NO_DESC;
+            }
+            case TC_CLASS:
+                readClassDesc();
+                assignHandle(null);
+                return NO_DESC;
+            case TC_ENUM:
+                readClassDesc();
+                assignHandle(null);
+                readObject();
+                return NO_DESC;
+            default:
+                throw new StreamCorruptedException(String.format("unexpected type code 0x%02X", tc));
+        }
+    }
+
+    private ClassLayout readClassDesc() throws StreamCorruptedException {
+        byte tc = readByte();
+        switch (tc) {
+            case TC_NULL:
+                return null;
+            case TC_REFERENCE: {
+                ClassLayout desc = layouts.get(readInt());
+                if (desc == null) throw new StreamCorruptedException("reference to unknown class descriptor");
+                return desc;
+            }
+            case TC_CLASSDESC: {
+                int handle = nextHandle;
+                assignHandle(null);
+                int nameLen = readUnsignedShort();
+                need(nameLen);
+                char arrayElement = nameLen > 1 && buf[pos] == '[' ? (char) buf[pos + 1] : 0;
+                pos += nameLen;
+                skip(8); // serialVersionUID
+                byte flags = readByte();
+                int fieldCount = readUnsignedShort();
+                char[] fieldTypes = new char[fieldCount];
+                for (int i = 0; i < fieldCount; i++) {
+                    char type = (char) readByte();
+                    skip(readUnsignedShort()); // field name
+                    if (type == '[' || type == 'L') {
+                        readObject(); // field class name string
+                    } else if (primitiveWidth(type) == 0) {
+                        throw new StreamCorruptedException("bad field type " + type);
+                    }
+                    fieldTypes[i] = type;
+                }
+                ClassLayout desc = new ClassLayout(flags, arrayElement, fieldTypes);
+                register(handle, desc);
+                skipAnnotation();
+                desc.superLayout = readClassDesc();
+                return desc;
+            }
+            case TC_PROXYCLASSDESC: {
+                int handle = nextHandle;
+                assignHandle(null);
+                int interfaces = readInt();
+                for (int i = 0; i < interfaces; i++) {
+                    skip(readUnsignedShort());
+                }
+                ClassLayout desc = new ClassLayout(SC_SERIALIZABLE, (char) 0, new char[0]);
+                register(handle, desc);
+                skipAnnotation();
+                desc.superLayout = readClassDesc();
+                return desc;
+            }
+            default:
+                throw new StreamCorruptedException(String.format("unexpected class descriptor code 0x%02X", tc));
+        }
+    }
+
+    /* Field values are written superclass first, so walk the descriptor chain from the top */
+    private void readClassData(ClassLayout desc) throws StreamCorruptedException {
+        if (desc == null || desc == NO_DESC) throw new StreamCorruptedException("object without class descriptor");
+        if (desc.superLayout != null) {
+            readClassData(desc.superLayout);
+        }
+        if ((desc.flags & SC_SERIALIZABLE) != 0) {
+            for (char type : desc.fieldTypes) {
+                int width = primitiveWidth(type);
+                if (width > 0) {
+                    skip(width);
+                } else {
+                    readObject();
+                }
+            }
+            if ((desc.flags & SC_WRITE_METHOD) != 0) {
+                skipAnnotation();
+            }
+        } else if ((desc.flags & SC_EXTERNALIZABLE) != 0) {
+            if ((desc.flags & SC_BLOCK_DATA) == 0) {
+                throw new StreamCorruptedException("protocol 1 externalizable data cannot be framed");
+            }
+            skipAnnotation();
+        }
+    }
+
+    private void skipAnnotation() throws StreamCorruptedException {
+        while (peek() != TC_ENDBLOCKDATA) {
+            readContent();
+        }
+        pos++;
+    }
+
+    private void assignHandle(ClassLayout desc) {
+        if (desc != null) register(nextHandle, desc);
+        nextHandle++;
+    }
+
+    private void register(int handle, ClassLayout desc) {
+        layouts.put(handle, desc);
+        addedThisScan.add(handle);
+    }
+
+    private static int primitiveWidth(char type) {
+        return switch (type) {
+            case 'B', 'Z' -> 1;
+            case 'C', 'S' -> 2;
+            case 'I', 'F' -> 4;
+            case 'J', 'D' -> 8;
+            default -> 0;
+        };
+    }
+
+    private void need(int n) {
+        if (limit - pos < n) throw UNDERFLOW;
+    }
+
+    private void skip(int n) throws StreamCorruptedException {
+        if (n < 0) throw new StreamCorruptedException("negative length " + n);
+        need(n);
+        pos += n;
+    }
+
+    private byte peek() {
+        need(1);
+        return buf[pos];
+    }
+
+    private byte readByte() {
+        need(1);
+        return buf[pos++];
+    }
+
+    private int readUnsignedByte() {
+        return readByte() & 0xFF;
+    }
+
+    private int readUnsignedShort() {
+        need(2);
+        int v = ((buf[pos] & 0xFF) << 8) | (buf[pos + 1] & 0xFF);
+        pos += 2;
+        return v;
+    }
+
+    private int readInt() {
+        need(4);
+        int v = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16)
+                | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+        pos += 4;
+        return v;
+    }
+
+    private long readLong() {
+        long hi = readInt() & 0xFFFFFFFFL;
+        long lo = readInt() & 0xFFFFFFFFL;
+        return (hi << 32) | lo;
+    }
+}
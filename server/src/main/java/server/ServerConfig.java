@@ -0,0 +1,52 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/* Server runtime settings, read from server/storage/application.properties and overridable with -Dkey=value */
+public class ServerConfig {
+    private static final String RESOURCE = "server/storage/application.properties";
+    private static final Properties props = new Properties();
+
+    /* How accepted sockets are driven: one platform thread each, one virtual thread each, or selector event loops */
+    public enum IoMode { BLOCKING, VIRTUAL, NIO }
+
+    static {
+        try (InputStream input = ServerConfig.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (input != null) {
+                props.load(input);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read " + RESOURCE + ", using defaults: " + e.getMessage());
+        }
+    }
+
+    /* Returns a setting, preferring a system property over the properties file */
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key, props.getProperty(key));
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid integer for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /* server.io.mode = blocking (default) | virtual | nio */
+    public static IoMode ioMode() {
+        String mode = get("server.io.mode", "blocking");
+        try {
+            return IoMode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown server.io.mode '" + mode + "', falling back to blocking");
+            return IoMode.BLOCKING;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package server;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.sql.SQLException;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class ServerMain {
@@ -9,14 +8,15 @@ public class ServerMain {
     public static ConcurrentHashMap<String, ClientHandler> onlineUsers = new ConcurrentHashMap<>();
 
     public static void main(String[] args) {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Server started on port " + PORT);
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("Client connected.");
-                new Thread(new ClientHandler(clientSocket)).start();
-            }
-        } catch (IOException e) {
+        ConnectionEngine engine = ConnectionEngine.create();
+        try {
+            UserCache.load();
+            FriendGraph.load();
+            FriendRequestIndex.load();
+            engine.bind(PORT);
+            System.out.println("Server started on port " + PORT + " (" + engine.name() + ")");
+            engine.serve();
+        } catch (IOException | SQLException e) {
             e.printStackTrace();
         }
     }
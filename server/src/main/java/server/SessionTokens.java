@@ -0,0 +1,67 @@
+package server;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Tokens handed out on LOGIN_SUCCESS so a client whose connection dropped can sign in again with
+ * RESUME_SESSION instead of keeping and replaying the password. A token names a user id, so it survives a
+ * rename, and expires session.tokenTtlMinutes after it was issued. Tokens live in memory only: a server
+ * restart signs every client out. Each session also keeps the highest client id handled, so a batch the
+ * client sends again after a drop is not acted on twice.
+ */
+public class SessionTokens {
+    private static final SecureRandom random = new SecureRandom();
+    private static final long TTL_MS = Math.max(1, ServerConfig.getInt("session.tokenTtlMinutes", 24 * 60)) * 60_000L;
+    private static final int SWEEP_EVERY = 1024;
+
+    private record Session(int userId, long expiresAtMs, AtomicInteger lastClientId) {}
+
+    private static final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private static final AtomicInteger issued = new AtomicInteger();
+
+    /* A new random token for userId */
+    public static String issue(int userId) {
+        if (issued.incrementAndGet() % SWEEP_EVERY == 0) {
+            long now = System.currentTimeMillis();
+            sessions.values().removeIf(s -> s.expiresAtMs <= now);
+        }
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(userId, System.currentTimeMillis() + TTL_MS, new AtomicInteger()));
+        return token;
+    }
+
+    /* The user id a live token was issued for */
+    public static Optional<Integer> resume(String token) {
+        if (token == null || token.isEmpty()) return Optional.empty();
+        Session session = sessions.get(token);
+        if (session == null) return Optional.empty();
+        if (session.expiresAtMs <= System.currentTimeMillis()) {
+            sessions.remove(token, session);
+            return Optional.empty();
+        }
+        return Optional.of(session.userId);
+    }
+
+    /* False if the session already handled this client id; messages outside a session always pass */
+    public static boolean firstDelivery(String token, int clientId) {
+        if (token == null || clientId == 0) return true;
+        Session session = sessions.get(token);
+        return session == null || session.lastClientId.getAndAccumulate(clientId, Math::max) < clientId;
+    }
+
+    public static void revoke(String token) {
+        if (token != null) sessions.remove(token);
+    }
+
+    /* Drops every token of userId except keep, e.g. after a password change */
+    public static void revokeOthers(int userId, String keep) {
+        sessions.entrySet().removeIf(e -> e.getValue().userId == userId && !e.getKey().equals(keep));
+    }
+}
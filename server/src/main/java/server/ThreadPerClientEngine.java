@@ -0,0 +1,107 @@
+package server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Thread-per-client I/O model: each ClientHandler blocks on ObjectInputStream.readObject in its own thread.
+ * With virtual threads the accept loop and every handler run as virtual threads, so idle clients cost a
+ * parked continuation instead of a platform stack. Outbound messages are written by short-lived drain
+ * tasks (see OutboundQueue), so a slow reader only ever blocks a writer task, never another client.
+ */
+public class ThreadPerClientEngine implements ConnectionEngine {
+    private final boolean virtual;
+    private final Thread.Builder clientThreads;
+    private final ExecutorService writers;
+    private final Set<ClientHandler> clientHandlers = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private VirtualThreadMonitor monitor;
+
+    public ThreadPerClientEngine(boolean virtual) {
+        this.virtual = virtual;
+        this.clientThreads = virtual
+                ? Thread.ofVirtual().name("client-", 1)
+                : Thread.ofPlatform().name("client-", 1);
+        this.writers = virtual
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("writer-", 1).factory())
+                : Executors.newCachedThreadPool(Thread.ofPlatform().daemon().name("writer-", 1).factory());
+    }
+
+    @Override
+    public void bind(int port) throws IOException {
+        serverSocket = new ServerSocket(port, ServerConfig.getInt("server.acceptBacklog", 50));
+        if (virtual) {
+            monitor = VirtualThreadMonitor.start(clientHandlers::size);
+        }
+    }
+
+    @Override
+    public void serve() throws IOException {
+        if (!virtual) {
+            acceptLoop();
+            return;
+        }
+        IOException[] failure = new IOException[1];
+        Thread acceptor = Thread.ofVirtual().name("accept").start(() -> {
+            try {
+                acceptLoop();
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            shutdown();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private void acceptLoop() throws IOException {
+        try (ServerSocket ss = serverSocket) {
+            while (!ss.isClosed()) {
+                Socket clientSocket = ss.accept();
+                ClientHandler handler = new ClientHandler(clientSocket, writers);
+                clientHandlers.add(handler);
+                clientThreads.start(() -> {
+                    try {
+                        handler.run();
+                    } finally {
+                        clientHandlers.remove(handler);
+                    }
+                });
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (ClientHandler handler : clientHandlers) {
+            handler.shutdown();
+        }
+        writers.shutdown();
+        if (monitor != null) {
+            monitor.close();
+        }
+    }
+
+    @Override
+    public String name() {
+        return virtual ? "virtual threads" : "blocking";
+    }
+}
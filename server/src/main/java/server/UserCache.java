@@ -0,0 +1,255 @@
+package server;
+
+import server.storage.DatabaseStore;
+import server.storage.UserData;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Authoritative in-memory copy of the users table, loaded once at startup and indexed by lower-cased
+ * username. Field updates are written behind: they are queued as row snapshots and a single writer
+ * thread applies them to MySQL in the order they were made, at most users.writeBehindMs later, keeping
+ * only the newest snapshot of a row within a batch. Registrations and renames change the unique username
+ * column, so they wait for everything queued before them and are written before the caller continues,
+ * and only then reach UsernameIndex. Such a caller waits at most users.syncWriteTimeoutMs, and gets an
+ * SQLException rather than its write once users.syncWriteRetries attempts at the rows ahead of it failed.
+ */
+public class UserCache {
+    private static final Map<String, UserData> byName = new ConcurrentHashMap<>();
+    private static final Map<Integer, UserData> byId = new ConcurrentHashMap<>();
+    private static final BlockingQueue<Write> writes = new LinkedBlockingQueue<>();
+    // Guards username changes; a lock rather than synchronized since callers wait on the writer while holding it
+    private static final ReentrantLock nameLock = new ReentrantLock();
+    private static final long flushLatencyNanos =
+            TimeUnit.MILLISECONDS.toNanos(Math.max(0, ServerConfig.getInt("users.writeBehindMs", 200)));
+    private static final int RETRY_DELAY_MS = 1000;
+    private static final long SYNC_TIMEOUT_MS = Math.max(1, ServerConfig.getInt("users.syncWriteTimeoutMs", 5000));
+    private static final int SYNC_RETRIES = Math.max(1, ServerConfig.getInt("users.syncWriteRetries", 3));
+    private static Thread writer;
+
+    /*
+     * A queued row write; writes with a future are applied on their own and complete it. The writer and a
+     * caller that stopped waiting race to claim such a write, so it is either applied or abandoned, never both.
+     */
+    private record Write(UserData row, boolean insert, CompletableFuture<Integer> done, AtomicBoolean claimed) {
+        Write(UserData row, boolean insert, CompletableFuture<Integer> done) {
+            this(row, insert, done, done == null ? null : new AtomicBoolean());
+        }
+
+        boolean coalescable() {
+            return done == null;
+        }
+    }
+
+    /* Reads every user once and starts the write-behind thread; later calls do nothing */
+    public static synchronized void load() throws SQLException {
+        if (writer != null) return;
+        for (UserData user : DatabaseStore.loadUsers()) {
+            byName.put(key(user.username), user);
+            byId.put(user.userId, user);
+            UsernameIndex.put(user.userId, user.username);
+        }
+        writer = new Thread(UserCache::writeLoop, "user-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(UserCache::flush, "user-flush"));
+        System.out.println("Loaded " + byName.size() + " users into cache");
+    }
+
+    static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /* Case-insensitive lookup; callers synchronize on the returned object while changing it */
+    public static Optional<UserData> find(String username) {
+        return username == null ? Optional.empty() : Optional.ofNullable(byName.get(key(username)));
+    }
+
+    public static Optional<UserData> find(int userId) {
+        return Optional.ofNullable(byId.get(userId));
+    }
+
+    /* Current username for a user id, or null */
+    public static String username(int userId) {
+        UserData user = byId.get(userId);
+        return user == null ? null : user.username;
+    }
+
+    /* Queues the user's current state for writing; call while holding the user's monitor */
+    public static void update(UserData user) {
+        writes.add(new Write(user.copy(), false, null));
+    }
+
+    /* Adds a user unless the name is taken in any letter case; returns once the row exists in MySQL */
+    public static boolean register(String username, String passwordHash, String salt) throws SQLException {
+        nameLock.lock();
+        try {
+            if (byName.containsKey(key(username))) return false;
+            UserData user = new UserData(username, passwordHash, salt);
+            user.userId = writeNow(new Write(user.copy(), true, new CompletableFuture<>()));
+            byName.put(key(username), user);
+            byId.put(user.userId, user);
+            UsernameIndex.put(user.userId, username);
+            return true;
+        } finally {
+            nameLock.unlock();
+        }
+    }
+
+    /* Renames a user unless the new name is taken; returns once MySQL has the new name */
+    public static boolean rename(UserData user, String newUsername) throws SQLException {
+        nameLock.lock();
+        try {
+            UserData holder = byName.get(key(newUsername));
+            if (holder != null && holder != user) return false;
+            String oldUsername;
+            UserData renamed;
+            synchronized (user) {
+                // Renamed first, so updates queued while we wait carry the new name too
+                oldUsername = user.username;
+                user.username = newUsername;
+                renamed = user.copy();
+            }
+            try {
+                writeNow(new Write(renamed, false, new CompletableFuture<>()));
+            } catch (SQLException e) {
+                synchronized (user) {
+                    user.username = oldUsername;
+                }
+                throw e;
+            }
+            byName.remove(key(oldUsername));
+            byName.put(key(newUsername), user);
+            UsernameIndex.put(user.userId, newUsername);
+            return true;
+        } finally {
+            nameLock.unlock();
+        }
+    }
+
+    /* Blocks until every write queued so far has reached MySQL */
+    public static void flush() {
+        if (writer == null) return;
+        try {
+            writeNow(new Write(null, false, new CompletableFuture<>()));
+        } catch (SQLException e) {
+            System.err.println("Could not flush user writes: " + e.getMessage());
+        }
+    }
+
+    private static int writeNow(Write write) throws SQLException {
+        writes.add(write);
+        try {
+            try {
+                return write.done().get(SYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (write.claimed().compareAndSet(false, true)) {
+                    throw new SQLException("User write not applied within " + SYNC_TIMEOUT_MS + " ms", e);
+                }
+                // The writer has started on it; its outcome is the answer
+                return write.done().get(SYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException e) {
+            throw new SQLException("User write still running after " + 2 * SYNC_TIMEOUT_MS + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for user write", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sql) throw sql;
+            throw new SQLException(cause);
+        }
+    }
+
+    /* ---- writer thread ---- */
+
+    private static void writeLoop() {
+        List<Write> batch = new ArrayList<>();
+        while (true) {
+            try {
+                Write next = writes.take();
+                batch.add(next);
+                // Give more updates a chance to join this batch, unless someone is waiting on the write
+                long deadline = System.nanoTime() + flushLatencyNanos;
+                while (next.coalescable()) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0 || (next = writes.poll(left, TimeUnit.NANOSECONDS)) == null) break;
+                    batch.add(next);
+                }
+                writes.drainTo(batch);
+                apply(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static void apply(List<Write> batch) throws InterruptedException {
+        // Newest snapshot per row, in the order the rows were first touched
+        Map<Integer, UserData> pending = new LinkedHashMap<>();
+        for (Write write : batch) {
+            if (write.coalescable()) {
+                pending.put(write.row().userId, write.row());
+                continue;
+            }
+            SQLException blocked = writeUpdates(pending, SYNC_RETRIES);
+            if (!write.claimed().compareAndSet(false, true)) {
+                continue; // The caller gave up waiting
+            }
+            if (blocked != null) {
+                // Applying it now would overtake the rows still pending, so it fails instead
+                write.done().completeExceptionally(blocked);
+                continue;
+            }
+            if (write.row() == null) {
+                write.done().complete(0);
+                continue;
+            }
+            try {
+                if (write.insert()) {
+                    write.done().complete(DatabaseStore.insertUser(write.row()));
+                } else {
+                    DatabaseStore.updateUsers(List.of(write.row()));
+                    write.done().complete(write.row().userId);
+                }
+            } catch (SQLException e) {
+                write.done().completeExceptionally(e);
+            }
+        }
+        writeUpdates(pending, Integer.MAX_VALUE);
+    }
+
+    /*
+     * Tries up to attempts times to get the rows into MySQL; returns the last error if they are still
+     * pending, in which case they stay in the map for the next call, so no later write overtakes them.
+     */
+    private static SQLException writeUpdates(Map<Integer, UserData> pending, int attempts) throws InterruptedException {
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            try {
+                DatabaseStore.updateUsers(pending.values());
+                pending.clear();
+            } catch (SQLException e) {
+                System.err.println("User write-behind failed, retrying " + pending.size() + " rows: " + e.getMessage());
+                if (attempt >= attempts) return e;
+                Thread.sleep(RETRY_DELAY_MS);
+            }
+        }
+        return null;
+    }
+}
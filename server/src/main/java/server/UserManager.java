@@ -11,67 +11,59 @@ import java.util.concurrent.ConcurrentHashMap;
 public class UserManager {
     private static final int MAX_BAD_TRIES = 5;
     private static final int[] LOCKOUT_MINUTES = {1, 5, 10, 20, 60};
+    // Offline messages queued per HISTORY_REQUEST page; the next page waits until this one is written
+    private static final int HISTORY_PAGE = Math.max(1, ServerConfig.getInt("history.pageSize", 64));
     public static final Map<String, ClientHandler> activeClients = new ConcurrentHashMap<>();
 
-    private static List<UserData> loadUsers() throws SQLException {
-        return DatabaseStore.loadUsers();
-    }
-
-    private static void saveUsers(List<UserData> users) throws SQLException {
-        DatabaseStore.saveUsers(users);
-    }
-
     public static AuthResult authenticate(String username, String password) {
-        try {
-            List<UserData> users = loadUsers();
-            long now = System.currentTimeMillis();
+        Optional<UserData> found = UserCache.find(username);
+        if (found.isEmpty() || !found.get().username.equals(username)) {
+            return new AuthResult(false, "Account '" + username + "' does not exist.");
+        }
+        UserData u = found.get();
+        long now = System.currentTimeMillis();
 
-            for (UserData u : users) {
-                if (!u.username.equals(username)) continue;
-                if (u.lockoutStage > LOCKOUT_MINUTES.length) {
-                    return new AuthResult(false, "Account permanently locked.");
-                }
+        synchronized (u) {
+            if (u.lockoutStage > LOCKOUT_MINUTES.length) {
+                return new AuthResult(false, "Account permanently locked.");
+            }
 
-                if (u.lockoutExpiryMs > now) {
-                    long secLeft = (u.lockoutExpiryMs - now) / 1000;
-                    return new AuthResult(false, "Account locked. Try again in " + secLeft + "s.");
-                }
+            if (u.lockoutExpiryMs > now) {
+                long secLeft = (u.lockoutExpiryMs - now) / 1000;
+                return new AuthResult(false, "Account locked. Try again in " + secLeft + "s.");
+            }
 
-                String hash = PasswordUtil.hash(password, u.salt);
-                if (hash.equals(u.passwordHash)) {
+            String hash = PasswordUtil.hash(password, u.salt);
+            if (hash.equals(u.passwordHash)) {
+                if (u.failedAttempts != 0 || u.lockoutStage != 0 || u.lockoutExpiryMs != 0L) {
                     u.failedAttempts = 0;
                     u.lockoutStage = 0;
                     u.lockoutExpiryMs = 0L;
-                    saveUsers(users);
-                    return new AuthResult(true, "OK");
+                    UserCache.update(u);
                 }
+                return new AuthResult(true, "OK");
+            }
 
-                u.failedAttempts++;
-                if (u.failedAttempts >= MAX_BAD_TRIES) {
-                    u.failedAttempts = 0;
-                    u.lockoutStage++;
-
-                    if (u.lockoutStage <= LOCKOUT_MINUTES.length) {
-                        int mins = LOCKOUT_MINUTES[u.lockoutStage - 1];
-                        u.lockoutExpiryMs = now + mins * 60_000L;
-                        saveUsers(users);
-                        return new AuthResult(false, "Account locked for " + mins + " minutes.");
-                    } else {
-                        u.lockoutExpiryMs = Long.MAX_VALUE;
-                        saveUsers(users);
-                        return new AuthResult(false, "Account permanently locked. Contact support.");
-                    }
+            u.failedAttempts++;
+            if (u.failedAttempts >= MAX_BAD_TRIES) {
+                u.failedAttempts = 0;
+                u.lockoutStage++;
+
+                if (u.lockoutStage <= LOCKOUT_MINUTES.length) {
+                    int mins = LOCKOUT_MINUTES[u.lockoutStage - 1];
+                    u.lockoutExpiryMs = now + mins * 60_000L;
+                    UserCache.update(u);
+                    return new AuthResult(false, "Account locked for " + mins + " minutes.");
+                } else {
+                    u.lockoutExpiryMs = Long.MAX_VALUE;
+                    UserCache.update(u);
+                    return new AuthResult(false, "Account permanently locked. Contact support.");
                 }
-
-                int left = MAX_BAD_TRIES - u.failedAttempts;
-                saveUsers(users);
-                return new AuthResult(false, "Password incorrect (" + left + " tries left).");
             }
 
-            return new AuthResult(false, "Account '" + username + "' does not exist.");
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return new AuthResult(false, "Server error reading users.");
+            int left = MAX_BAD_TRIES - u.failedAttempts;
+            UserCache.update(u);
+            return new AuthResult(false, "Password incorrect (" + left + " tries left).");
         }
     }
 
@@ -82,131 +74,49 @@ public class UserManager {
     }
 
     public static boolean changeUsername(String oldUsername, String newUsername, String oldPassword) {
+        Optional<UserData> found = UserCache.find(oldUsername);
+        if (found.isEmpty() || !found.get().username.equals(oldUsername)) return false;
+        UserData u = found.get();
+        synchronized (u) {
+            String hash = PasswordUtil.hash(oldPassword, u.salt);
+            if (!hash.equals(u.passwordHash)) return false;
+        }
+        // Friends and requests reference user_id, so only the users row changes
         try {
-            List<UserData> users = loadUsers();
-            if (users.stream().anyMatch(u -> u.username.equalsIgnoreCase(newUsername))) {
-                return false;
-            }
-            for (UserData u : users) {
-                if (u.username.equals(oldUsername)) {
-                    String hash = PasswordUtil.hash(oldPassword, u.salt);
-                    if (!hash.equals(u.passwordHash)) return false;
-                    u.username = newUsername;
-                    saveUsers(users);
-                    try {
-                        updateFriendsFile(oldUsername, newUsername);
-                        updateRequestsFile(oldUsername, newUsername);
-                    } catch (SQLException e) {
-                        e.printStackTrace();
-                        return false;
-                    }
-                    return true;
-                }
-            }
-            return false;
+            return UserCache.rename(u, newUsername);
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
         }
     }
 
-    private static void updateFriendsFile(String oldUser, String newUser) throws SQLException {
-        List<FriendData> all = DatabaseStore.loadFriends();
-        for (FriendData f : all) {
-            if (f.getUsername().equals(oldUser)) {
-                f.setUsername(newUser);
-            }
-            for (int i = 0; i < f.getFriends().size(); i++) {
-                if (f.getFriends().get(i).equals(oldUser)) {
-                    f.getFriends().set(i, newUser);
-                }
-            }
-        }
-        DatabaseStore.saveFriends(all);
-    }
-
-    private static void updateRequestsFile(String oldUser, String newUser) throws SQLException {
-        List<FriendRequestData> all = DatabaseStore.loadRequests();
-        for (FriendRequestData r : all) {
-            if (r.getUsername().equals(oldUser)) {
-                r.setUsername(newUser);
-            }
-            for (int i = 0; i < r.getIncoming().size(); i++) {
-                if (r.getIncoming().get(i).equals(oldUser)) {
-                    r.getIncoming().set(i, newUser);
-                }
-            }
-            for (int i = 0; i < r.getOutgoing().size(); i++) {
-                if (r.getOutgoing().get(i).equals(oldUser)) {
-                    r.getOutgoing().set(i, newUser);
-                }
-            }
-        }
-        DatabaseStore.saveRequests(all);
-    }
-
     public static boolean changePassword(String username, String oldPassword, String newPassword) {
-        try {
-            List<UserData> users = loadUsers();
-            for (UserData u : users) {
-                if (u.username.equals(username)) {
-                    String existingHash = PasswordUtil.hash(oldPassword, u.salt);
-                    if (!existingHash.equals(u.passwordHash)) {
-                        return false;
-                    }
-                    String newSalt = PasswordUtil.generateSalt();
-                    u.salt = newSalt;
-                    u.passwordHash = PasswordUtil.hash(newPassword, newSalt);
-                    saveUsers(users);
-                    return true;
-                }
+        Optional<UserData> found = UserCache.find(username);
+        if (found.isEmpty() || !found.get().username.equals(username)) return false;
+        UserData u = found.get();
+        synchronized (u) {
+            String existingHash = PasswordUtil.hash(oldPassword, u.salt);
+            if (!existingHash.equals(u.passwordHash)) {
+                return false;
             }
-            return false;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
-        }
-    }
-
-    public static boolean register(String username, String password) {
-        try {
-            List<UserData> users = loadUsers();
-            boolean exists = users.stream().anyMatch(u -> u.username.equalsIgnoreCase(username));
-            if (exists) return false;
-
-            String salt = PasswordUtil.generateSalt();
-            String hashedPassword = PasswordUtil.hash(password, salt);
-            users.add(new UserData(username, hashedPassword, salt));
-            saveUsers(users);
+            String newSalt = PasswordUtil.generateSalt();
+            u.salt = newSalt;
+            u.passwordHash = PasswordUtil.hash(newPassword, newSalt);
+            UserCache.update(u);
             return true;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
         }
     }
 
-    public static Optional<UserData> findUser(String username) {
-        try {
-            List<UserData> users = loadUsers();
-            return users.stream().filter(u -> u.username.equalsIgnoreCase(username)).findFirst();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return Optional.empty();
-        }
+    /* False if the name is taken; throws if the database could not store the new user in time */
+    public static boolean register(String username, String password) throws SQLException {
+        if (UserCache.find(username).isPresent()) return false;
+        String salt = PasswordUtil.generateSalt();
+        String hashedPassword = PasswordUtil.hash(password, salt);
+        return UserCache.register(username, hashedPassword, salt);
     }
 
-    public static List<String> getAllUsernames() {
-        try {
-            List<UserData> users = loadUsers();
-            List<String> names = new ArrayList<>();
-            for (UserData user : users) {
-                names.add(user.username);
-            }
-            return names;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return new ArrayList<>();
-        }
+    public static Optional<UserData> findUser(String username) {
+        return UserCache.find(username);
     }
 
     public static void handleRegister(Message msg, ClientHandler handler) {
@@ -221,7 +131,17 @@ public class UserManager {
             return;
         }
 
-        boolean success = register(username, password);
+        boolean success;
+        try {
+            success = register(username, password);
+        } catch (SQLException e) {
+            System.err.println("Registration of " + username + " failed: " + e.getMessage());
+            handler.sendMessage(new Message(
+                    MessageType.REGISTER_FAILURE, "Server", username,
+                    "Registration is unavailable right now. Please try again later."
+            ));
+            return;
+        }
         if (!success) {
             handler.sendMessage(new Message(
                     MessageType.REGISTER_FAILURE, "Server", username,
@@ -244,18 +164,40 @@ public class UserManager {
                 ? MessageType.LOGIN_SUCCESS
                 : MessageType.LOGIN_FAILURE;
 
+        // On success the content is a session token the client can resume with after a dropped connection
+        String content = result.message;
         if (result.success) {
             UserManager.activeClients.put(username, handler);
             handler.setUsername(username);
+            content = SessionTokens.issue(UserCache.find(username).get().userId);
+            handler.setSessionToken(content);
         }
         handler.sendMessage(new Message(
                 replyType,
                 "Server",
                 username,
-                result.message
+                content
         ));
     }
 
+    /* Signs a reconnected client in with the token from its LOGIN_SUCCESS; answers like a login */
+    public static void handleResume(Message msg, ClientHandler handler) {
+        String token = msg.getContent();
+        Optional<UserData> user = SessionTokens.resume(token).flatMap(UserCache::find);
+        if (user.isEmpty()) {
+            handler.sendMessage(new Message(
+                    MessageType.LOGIN_FAILURE, "Server", msg.getReceiver(),
+                    "Session expired. Please log in again."
+            ));
+            return;
+        }
+        String username = user.get().username;
+        UserManager.activeClients.put(username, handler);
+        handler.setUsername(username);
+        handler.setSessionToken(token);
+        handler.sendMessage(new Message(MessageType.LOGIN_SUCCESS, "Server", username, token));
+    }
+
     public static void handleUpdatePublicKey(Message msg, ClientHandler handler) throws SQLException {
         String user = msg.getReceiver();
         String pubB64 = msg.getContent();
@@ -278,19 +220,20 @@ public class UserManager {
                 return;
             }
 
-            List<UserData> users = loadUsers();
-            for (UserData u : users) {
-                if (u.username.equalsIgnoreCase(user)) {
+            Optional<UserData> found = UserCache.find(user);
+            if (found.isPresent()) {
+                UserData u = found.get();
+                synchronized (u) {
                     u.publicKeyBase64 = cleanedKey;
-                    saveUsers(users);
-                    System.out.println("Public key updated successfully for user: " + user);
-                    break;
+                    UserCache.update(u);
                 }
+                System.out.println("Public key updated successfully for user: " + user);
             }
         }
         System.out.println("===============================");
     }
 
+    /* Answers with the key as sent by the client; the sender field echoes the requested name so replies can be matched */
     public static void handleRequestPublicKey(Message msg, ClientHandler handler) throws SQLException {
         String requestingUser = msg.getSender();
         String targetUser = msg.getReceiver();
@@ -339,7 +282,7 @@ public class UserManager {
 
                 handler.sendMessage(new Message(
                         MessageType.PUBLIC_KEY_RESPONSE,
-                        "Server",
+                        targetUser,
                         requestingUser,
                         sanitized
                 ));
@@ -347,7 +290,7 @@ public class UserManager {
             } else {
                 handler.sendMessage(new Message(
                         MessageType.PUBLIC_KEY_RESPONSE,
-                        "Server",
+                        targetUser,
                         requestingUser,
                         "NO_KEY"
                 ));
@@ -357,7 +300,7 @@ public class UserManager {
             System.out.println("User not found: " + targetUser);
             handler.sendMessage(new Message(
                     MessageType.PUBLIC_KEY_RESPONSE,
-                    "Server",
+                    targetUser,
                     requestingUser,
                     "USER_NOT_FOUND"
             ));
@@ -389,27 +332,53 @@ public class UserManager {
         String peerName = msg.getReceiver();
 
         System.out.println("Handling history request: from=" + me + ", for=" + peerName);
-        List<ChatEntry> messages = DatabaseStore.getUndeliveredMessages(me, peerName);
+        Optional<UserData> meUser = UserCache.find(me);
+        Optional<UserData> peerUser = UserCache.find(peerName);
+        if (meUser.isEmpty() || peerUser.isEmpty()) {
+            System.out.println("Unknown user in history request: " + me + ", " + peerName);
+            return;
+        }
+        List<ChatEntry> messages = MessageStore.pendingFor(meUser.get().userId, peerUser.get().userId);
+        messages.removeIf(e -> handler.historyInFlight.contains(e.id));
         if (messages.isEmpty()) {
             System.out.println("No undelivered messages found for " + me + " and " + peerName);
         } else {
             System.out.println("Found " + messages.size() + " undelivered messages");
-            for (ChatEntry e : messages) {
-                if (Objects.equals(e.receiver, me)) {
-                    handler.sendMessage(new Message(
-                            MessageType.HISTORY_RESPONSE,
-                            e.sender,
-                            me,
-                            e.cipher
-                    ));
-
-                    e.delivered = true;
-                    System.out.println("Sent undelivered message from " + e.sender + " to " + me);
-                }
+            sendHistoryPage(messages, 0, me, handler);
+        }
+    }
+
+    /*
+     * Queues up to HISTORY_PAGE messages starting at from, while the client keeps up. Each row is deleted
+     * only once the writer has flushed it, and the last one of a page queues the next page. Rows left
+     * behind by a backed-up or dropped connection stay pending for the next HISTORY_REQUEST.
+     */
+    private static void sendHistoryPage(List<ChatEntry> messages, int from, String me, ClientHandler handler) {
+        int end = Math.min(messages.size(), from + HISTORY_PAGE);
+        if (!handler.isWritable()) {
+            System.out.println("Client " + me + " is backed up; leaving " + (messages.size() - from) + " messages pending");
+            return;
+        }
+        for (int i = from; i < end; i++) {
+            ChatEntry e = messages.get(i);
+            long id = e.id;
+            boolean last = i == end - 1 && end < messages.size();
+            handler.historyInFlight.add(id);
+            boolean queued = handler.sendMessage(new Message(
+                    MessageType.HISTORY_RESPONSE,
+                    e.sender,
+                    me,
+                    e.cipher
+            ), () -> {
+                MessageStore.deleteDelivered(id).whenComplete((ok, error) -> handler.historyInFlight.remove(id));
+                if (last) sendHistoryPage(messages, end, me, handler);
+            });
+            if (!queued) {
+                handler.historyInFlight.remove(id);
+                return;
             }
-            DatabaseStore.removeDeliveredMessages(me, peerName);
-            System.out.println("Removed delivered messages from database");
         }
+        System.out.println("Queued undelivered messages " + (from + 1) + "-" + end + " of " + messages.size() + " for " + me);
     }
 
     public static void handleChatMessage(Message msg, ClientHandler handler) throws SQLException {
@@ -422,29 +391,35 @@ public class UserManager {
 
         ClientHandler recipient = ServerMain.onlineUsers.get(toUser);
         String activePartner = ClientHandler.activeChatPartner.get(toUser);
-        if (recipient != null && from.equals(activePartner)) {
-            try {
-                recipient.sendMessage(new Message(
-                        MessageType.CHAT_MESSAGE,
-                        from,
-                        toUser,
-                        cipher
-                ));
+        // A recipient above its outbound high watermark gets the message from storage later instead
+        if (recipient != null && from.equals(activePartner) && recipient.isWritable()) {
+            boolean queued = recipient.sendMessage(new Message(
+                    MessageType.CHAT_MESSAGE,
+                    from,
+                    toUser,
+                    cipher
+            ));
+            if (queued) {
                 System.out.println("Message forwarded directly to " + toUser + " who is in chat");
-            } catch (Exception e) {
-                System.err.println("Failed to forward message to " + toUser + ": " + e.getMessage());
-                ServerMain.onlineUsers.remove(toUser);
-                List<ChatEntry> undelivered = DatabaseStore.loadUndelivered();
-                undelivered.add(new ChatEntry(from, toUser, cipher, now, false));
-                DatabaseStore.saveUndelivered(undelivered);
-                System.out.println("Message stored in database due to forwarding failure, count: " + undelivered.size());
+            } else {
+                System.err.println("Failed to forward message to " + toUser + ": connection closed");
+                storeUndelivered(from, toUser, cipher, now);
             }
         } else {
-            System.out.println("User " + toUser + " is not in chat or offline, storing in database");
-            List<ChatEntry> undelivered = DatabaseStore.loadUndelivered();
-            undelivered.add(new ChatEntry(from, toUser, cipher, now, false));
-            DatabaseStore.saveUndelivered(undelivered);
-            System.out.println("Undelivered message saved, count: " + undelivered.size());
+            System.out.println("User " + toUser + " is not in chat, offline or backed up, storing in database");
+            storeUndelivered(from, toUser, cipher, now);
+        }
+    }
+
+    /* Appends one row to the offline queue */
+    private static void storeUndelivered(String from, String toUser, String cipher, long timestamp) throws SQLException {
+        Optional<UserData> sender = UserCache.find(from);
+        Optional<UserData> receiver = UserCache.find(toUser);
+        if (sender.isEmpty() || receiver.isEmpty()) {
+            System.out.println("Dropping message between unknown users: " + from + " -> " + toUser);
+            return;
         }
+        MessageStore.enqueue(sender.get().userId, receiver.get().userId, cipher, timestamp);
+        System.out.println("Undelivered message saved for " + toUser);
     }
-}
\ No newline at end of file
+}
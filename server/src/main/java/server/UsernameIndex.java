@@ -0,0 +1,152 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Substring search over lower-cased usernames. Every name is posted under each of its character
+ * unigrams, bigrams and trigrams, so a term only verifies users whose names contain all of the term's
+ * trigrams, or for one- and two-character terms the term itself. Results come back in lower-cased name
+ * order; the cursor is the last name returned, Base64 encoded.
+ */
+public class UsernameIndex {
+    private static final Map<Long, IntSet> postings = new HashMap<>();
+    private static final Map<Integer, String> namesById = new HashMap<>();
+    private static final int MAX_GRAM = 3;
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /* One page of matches; next is null when there are no more */
+    public record Page(List<String> usernames, String next) {}
+
+    /* Indexes a user under the given name, replacing any name it had before */
+    public static void put(int userId, String username) {
+        String name = UserCache.key(username);
+        lock.writeLock().lock();
+        try {
+            unlink(userId);
+            namesById.put(userId, name);
+            for (int n = 1; n <= MAX_GRAM; n++) {
+                for (int i = 0; i + n <= name.length(); i++) {
+                    postings.computeIfAbsent(gram(name, i, n), k -> new IntSet()).add(userId);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static void remove(int userId) {
+        lock.writeLock().lock();
+        try {
+            unlink(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Up to limit usernames containing term in any letter case, skipping excludeId and everything up to
+     * and including cursor. A cursor that was not produced here yields an empty page.
+     */
+    public static Page search(String term, int excludeId, int limit, String cursor) {
+        String needle = UserCache.key(term);
+        String after = decodeCursor(cursor);
+        if (needle.isEmpty() || limit <= 0 || after == null) return new Page(List.of(), null);
+
+        List<String> names;
+        lock.readLock().lock();
+        try {
+            names = lookup(needle, excludeId, limit + 1, after);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        String next = null;
+        if (names.size() > limit) {
+            names = names.subList(0, limit);
+            next = encodeCursor(names.get(limit - 1));
+        }
+        List<String> usernames = new ArrayList<>(names.size());
+        for (String name : names) {
+            String username = UserCache.find(name).map(user -> user.username).orElse(null);
+            if (username != null) usernames.add(username);
+        }
+        return new Page(usernames, next);
+    }
+
+    /* Intersects the term's longest-gram postings, smallest first, keeping the want lowest names */
+    private static List<String> lookup(String needle, int excludeId, int want, String after) {
+        int n = Math.min(MAX_GRAM, needle.length());
+        List<IntSet> lists = new ArrayList<>();
+        for (int i = 0; i + n <= needle.length(); i++) {
+            IntSet ids = postings.get(gram(needle, i, n));
+            if (ids == null) return List.of();
+            if (!lists.contains(ids)) lists.add(ids);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        IntSet smallest = lists.get(0);
+        List<IntSet> rest = lists.subList(1, lists.size());
+
+        // Max-heap on name, so the largest of the kept names is the one to drop
+        PriorityQueue<String> best = new PriorityQueue<>(want + 1, Collections.reverseOrder());
+        smallest.forEach(id -> {
+            if (id == excludeId) return;
+            for (IntSet ids : rest) {
+                if (!ids.contains(id)) return;
+            }
+            String name = namesById.get(id);
+            if (name.compareTo(after) <= 0 || !name.contains(needle)) return;
+            if (best.size() < want) {
+                best.add(name);
+            } else if (name.compareTo(best.peek()) < 0) {
+                best.poll();
+                best.add(name);
+            }
+        });
+        List<String> found = new ArrayList<>(best);
+        Collections.sort(found);
+        return found;
+    }
+
+    private static void unlink(int userId) {
+        String name = namesById.remove(userId);
+        if (name == null) return;
+        for (int n = 1; n <= MAX_GRAM; n++) {
+            for (int i = 0; i + n <= name.length(); i++) {
+                long key = gram(name, i, n);
+                IntSet ids = postings.get(key);
+                if (ids != null && ids.remove(userId) && ids.size() == 0) postings.remove(key);
+            }
+        }
+    }
+
+    /* The n characters at i packed 16 bits each, above the length so grams of different sizes never collide */
+    private static long gram(String s, int i, int n) {
+        long key = n;
+        for (int j = i; j < i + n; j++) {
+            key = (key << 16) | s.charAt(j);
+        }
+        return key;
+    }
+
+    private static String encodeCursor(String name) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /* "" for the first page, null if the cursor is malformed */
+    private static String decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) return "";
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package server;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+
+/*
+ * Periodic report for the virtual-thread engine: how often handlers pinned their carrier (from the JFR
+ * jdk.VirtualThreadPinned event) and how busy the carrier threads were. Logged every
+ * server.vthreads.reportSeconds through GUIServer.log.
+ */
+public class VirtualThreadMonitor implements AutoCloseable {
+    // Every worker of the virtual thread scheduler is one of these, whatever number its pool was given
+    private static final String CARRIER_CLASS = "jdk.internal.misc.CarrierThread";
+
+    private final RecordingStream stream;
+    private final Thread reporter;
+    private final IntSupplier liveClients;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final LongAdder pinnedEvents = new LongAdder();
+    private final AtomicLong pinnedNanos = new AtomicLong();
+    private final Map<String, LongAdder> pinnedSites = new ConcurrentHashMap<>();
+
+    private long lastCarrierCpuNanos;
+    private long lastWallNanos;
+
+    private VirtualThreadMonitor(IntSupplier liveClients, Duration threshold, Duration interval) {
+        this.liveClients = liveClients;
+        this.stream = new RecordingStream();
+        stream.enable("jdk.VirtualThreadPinned").withThreshold(threshold).withStackTrace();
+        stream.onEvent("jdk.VirtualThreadPinned", this::onPinned);
+        stream.startAsync();
+
+        lastCarrierCpuNanos = carrierCpuNanos();
+        lastWallNanos = System.nanoTime();
+        this.reporter = Thread.ofPlatform().daemon().name("vthread-report").start(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(interval.toMillis());
+                    GUIServer.log(report());
+                }
+            } catch (InterruptedException ignored) {}
+        });
+    }
+
+    /* Starts monitoring with thresholds from ServerConfig */
+    public static VirtualThreadMonitor start(IntSupplier liveClients) {
+        return new VirtualThreadMonitor(liveClients,
+                Duration.ofMillis(ServerConfig.getInt("server.vthreads.pinnedThresholdMs", 20)),
+                Duration.ofSeconds(ServerConfig.getInt("server.vthreads.reportSeconds", 60)));
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedEvents.increment();
+        pinnedNanos.addAndGet(event.getDuration().toNanos());
+        pinnedSites.computeIfAbsent(pinnedSite(event.getStackTrace()), k -> new LongAdder()).increment();
+    }
+
+    /* First frame outside the JDK, which is where our code held the monitor or called native code */
+    private static String pinnedSite(RecordedStackTrace trace) {
+        if (trace == null) return "unknown";
+        for (RecordedFrame frame : trace.getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                return type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+            }
+        }
+        RecordedFrame top = trace.getFrames().isEmpty() ? null : trace.getFrames().get(0);
+        return top == null ? "unknown" : top.getMethod().getType().getName() + "." + top.getMethod().getName();
+    }
+
+    /* Sums CPU time of the carrier threads, recognised by their class rather than their pool's name */
+    private long carrierCpuNanos() {
+        long total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getClass().getName().equals(CARRIER_CLASS)) {
+                long cpu = threads.getThreadCpuTime(thread.threadId());
+                if (cpu > 0) total += cpu;
+            }
+        }
+        return total;
+    }
+
+    String report() {
+        long cpu = carrierCpuNanos();
+        long wall = System.nanoTime();
+        int carriers = Integer.getInteger("jdk.virtualThreadScheduler.parallelism",
+                Runtime.getRuntime().availableProcessors());
+        double utilization = wall > lastWallNanos
+                ? 100.0 * (cpu - lastCarrierCpuNanos) / ((double) (wall - lastWallNanos) * carriers)
+                : 0;
+        lastCarrierCpuNanos = cpu;
+        lastWallNanos = wall;
+
+        String topSites = pinnedSites.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> e) -> e.getValue().sum()).reversed())
+                .limit(3)
+                .map(e -> e.getKey() + " x" + e.getValue().sum())
+                .collect(Collectors.joining(", "));
+        return String.format("Virtual threads: %d clients, carrier CPU %.1f%% of %d carriers, %d pinned (%d ms total)%s",
+                liveClients.getAsInt(), Math.max(0, utilization), carriers,
+                pinnedEvents.sum(), pinnedNanos.get() / 1_000_000,
+                topSites.isEmpty() ? "" : ", top pin sites: " + topSites);
+    }
+
+    @Override
+    public void close() {
+        reporter.interrupt();
+        stream.close();
+    }
+}
@@ -1,6 +1,9 @@
 package server.storage;
 
 public class ChatEntry {
+    public long   id;
+    public int    senderId;
+    public int    receiverId;
     public String sender;
     public String receiver;
     public String cipher;
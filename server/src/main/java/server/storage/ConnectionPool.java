@@ -0,0 +1,290 @@
+package server.storage;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Bounded pool of MySQL connections for DatabaseStore. Borrowed connections are proxies: close() hands the
+ * physical connection back, and prepareStatement(sql) returns a statement cached on that connection whose
+ * close() only clears its parameters. A connection that sat idle longer than db.pool.validateAfterMs is
+ * checked with isValid() before it is handed out and replaced if the server dropped it.
+ */
+final class ConnectionPool {
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int statementCacheSize;
+    private final long borrowTimeoutMs;
+    private final long validateAfterMs;
+    private final int validationTimeoutSeconds;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger open = new AtomicInteger();
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+
+    ConnectionPool(String url, String user, String password, Properties props) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, intProperty(props, "db.pool.maxSize", 10));
+        this.statementCacheSize = intProperty(props, "db.pool.statementCacheSize", 64);
+        this.borrowTimeoutMs = intProperty(props, "db.pool.borrowTimeoutMs", 5000);
+        this.validateAfterMs = intProperty(props, "db.pool.validateAfterMs", 1000);
+        this.validationTimeoutSeconds = Math.max(1, intProperty(props, "db.pool.validationTimeoutSeconds", 2));
+        this.permits = new Semaphore(maxSize, true);
+
+        int minIdle = Math.min(maxSize, intProperty(props, "db.pool.minIdle", 2));
+        for (int i = 0; i < minIdle; i++) {
+            try {
+                idle.push(openPhysical());
+            } catch (SQLException e) {
+                System.out.println("Could not pre-open database connection: " + e.getMessage());
+                break;
+            }
+        }
+        int reportSeconds = intProperty(props, "db.pool.reportSeconds", 300);
+        if (reportSeconds > 0) {
+            Thread reporter = new Thread(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(reportSeconds * 1000L);
+                        System.out.println(metrics());
+                    }
+                } catch (InterruptedException ignored) {}
+            }, "db-pool-report");
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+    }
+
+    private static int intProperty(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /* Waits up to db.pool.borrowTimeoutMs for a free connection */
+    Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLException("Timed out after " + borrowTimeoutMs + " ms waiting for a database connection ("
+                        + maxSize + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        borrows.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.poll()) != null) {
+                if (isUsable(pooled)) {
+                    return pooled.lease();
+                }
+                evictions.increment();
+                pooled.closePhysical();
+            }
+            return openPhysical().lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastReturnedMs < validateAfterMs) {
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection openPhysical() throws SQLException {
+        PooledConnection pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+        open.incrementAndGet();
+        return pooled;
+    }
+
+    private void release(PooledConnection pooled) {
+        try {
+            Connection physical = pooled.physical;
+            if (!physical.getAutoCommit()) {
+                // A caller that threw before commit or rollback must not leak its transaction to the next borrower
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            pooled.lastReturnedMs = System.currentTimeMillis();
+            idle.push(pooled);
+        } catch (SQLException e) {
+            evictions.increment();
+            pooled.closePhysical();
+        } finally {
+            permits.release();
+        }
+    }
+
+    int active() {
+        return maxSize - permits.availablePermits();
+    }
+
+    int idle() {
+        return idle.size();
+    }
+
+    String metrics() {
+        long n = borrows.sum();
+        return String.format("DB pool: %d active, %d idle, %d open (max %d); %d borrows, avg wait %.2f ms, max wait %.2f ms, "
+                        + "%d timeouts, %d evicted; statement cache %d hits / %d misses",
+                active(), idle(), open.get(), maxSize, n,
+                n == 0 ? 0.0 : waitNanos.sum() / 1e6 / n, maxWaitNanos.get() / 1e6,
+                timeouts.sum(), evictions.sum(), statementHits.sum(), statementMisses.sum());
+    }
+
+    /* A physical connection and its statement cache; only one borrower uses it at a time */
+    private final class PooledConnection {
+        final Connection physical;
+        volatile long lastReturnedMs = System.currentTimeMillis();
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<PreparedStatement, Boolean> inUse = new IdentityHashMap<>();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease());
+        }
+
+        void closePhysical() {
+            open.decrementAndGet();
+            try {
+                physical.close();
+            } catch (SQLException ignored) {}
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement cached = statements.get(sql);
+            if (cached != null && !inUse.containsKey(cached)) {
+                statementHits.increment();
+            } else {
+                statementMisses.increment();
+                if (cached != null || statementCacheSize <= 0) {
+                    // Already open further up the caller's stack, or caching is off: hand out a plain statement
+                    return physical.prepareStatement(sql);
+                }
+                cached = physical.prepareStatement(sql);
+                statements.put(sql, cached);
+                evictStatements();
+            }
+            inUse.put(cached, Boolean.TRUE);
+            PreparedStatement statement = cached;
+            List<ResultSet> results = new ArrayList<>(1);
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                            if (inUse.remove(statement) != null) {
+                                // Back to the cache as a fresh statement: no open cursor, batch or bound values
+                                for (ResultSet rs : results) {
+                                    rs.close();
+                                }
+                                results.clear();
+                                statement.clearBatch();
+                                statement.clearParameters();
+                            }
+                            return null;
+                        }
+                        if (method.getName().equals("isClosed") && method.getParameterCount() == 0) {
+                            return !inUse.containsKey(statement) || statement.isClosed();
+                        }
+                        Object result = invoke(statement, method, args);
+                        if (result instanceof ResultSet rs) results.add(rs);
+                        return result;
+                    });
+        }
+
+        private void evictStatements() throws SQLException {
+            Iterator<Map.Entry<String, PreparedStatement>> it = statements.entrySet().iterator();
+            while (statements.size() > statementCacheSize && it.hasNext()) {
+                PreparedStatement eldest = it.next().getValue();
+                if (!inUse.containsKey(eldest)) {
+                    it.remove();
+                    eldest.close();
+                }
+            }
+        }
+
+        /* The borrower's view of the connection; stops working once it has been closed */
+        private final class Lease implements InvocationHandler {
+            private boolean closed;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("close") && method.getParameterCount() == 0) {
+                    if (!closed) {
+                        closed = true;
+                        inUse.clear();
+                        release(PooledConnection.this);
+                    }
+                    return null;
+                }
+                if (name.equals("isClosed") && method.getParameterCount() == 0) {
+                    return closed || physical.isClosed();
+                }
+                if (closed) {
+                    throw new SQLException("Connection already returned to the pool");
+                }
+                if (name.equals("prepareStatement") && method.getParameterCount() == 1) {
+                    return prepare((String) args[0]);
+                }
+                return ConnectionPool.invoke(physical, method, args);
+            }
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -5,262 +5,323 @@ import java.io.InputStream;
 import java.sql.*;
 import java.util.*;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DatabaseStore {
     private static final String DB_URL;
     private static final String DB_USER;
     private static final String DB_PASSWORD;
+    // Connector/J guards its I/O with synchronized blocks, which would pin a virtual thread's carrier
+    // for the whole round-trip, so JDBC work from virtual threads is handed to these platform threads.
+    private static final ExecutorService JDBC_THREADS;
+    private static final ConnectionPool POOL;
 
     static {
         Properties props = new Properties();
         try (InputStream input = DatabaseStore.class.getClassLoader().getResourceAsStream("server/storage/application.properties")) {
-            if (input == null) {
-                throw new IllegalStateException("application.properties not found in server/storage/");
+            if (input != null) {
+                props.load(input);
+            }
+            // -Ddb.* settings win over the file, as they do for ServerConfig
+            for (String key : System.getProperties().stringPropertyNames()) {
+                if (key.startsWith("db.")) props.setProperty(key, System.getProperty(key));
+            }
+            if (props.getProperty("db.url") == null) {
+                throw new IllegalStateException("application.properties not found in server/storage/ and no -Ddb.url given");
             }
-            props.load(input);
             DB_URL = props.getProperty("db.url");
             DB_USER = props.getProperty("db.user");
             DB_PASSWORD = props.getProperty("db.password");
+            AtomicInteger jdbcThreadId = new AtomicInteger();
+            JDBC_THREADS = Executors.newFixedThreadPool(
+                    Integer.parseInt(props.getProperty("db.jdbcThreads", "32").trim()), r -> {
+                        Thread t = new Thread(r, "jdbc-" + jdbcThreadId.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
             System.out.println("Loaded DB_URL: " + DB_URL); // Debug output
+            POOL = new ConnectionPool(DB_URL, DB_USER, DB_PASSWORD, props);
         } catch (IOException e) {
             throw new RuntimeException("Failed to load database properties from server/storage/application.properties", e);
         }
     }
 
+    /* Borrows a pooled connection; closing it returns it to the pool */
     private static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+        return POOL.borrow();
     }
 
-    public static List<UserData> loadUsers() throws SQLException {
-        List<UserData> users = new ArrayList<>();
-        String sql = "SELECT username, password_hash, salt, public_key_base64, failed_attempts, lockout_stage, lockout_expiry_ms FROM users";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                UserData user = new UserData();
-                user.username = rs.getString("username");
-                user.passwordHash = rs.getString("password_hash");
-                user.salt = rs.getString("salt");
-                user.publicKeyBase64 = rs.getString("public_key_base64");
-                user.failedAttempts = rs.getInt("failed_attempts");
-                user.lockoutStage = rs.getInt("lockout_stage");
-                user.lockoutExpiryMs = rs.getLong("lockout_expiry_ms");
-                users.add(user);
-            }
-        }
-        return users;
+    /* One-line summary of pool usage for the server log */
+    public static String poolMetrics() {
+        return POOL.metrics();
     }
 
-    public static void saveUsers(List<UserData> users) throws SQLException {
-        String sql = "INSERT INTO users (username, password_hash, salt, public_key_base64, failed_attempts, lockout_stage, lockout_expiry_ms) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE " +
-                "password_hash = VALUES(password_hash), salt = VALUES(salt), public_key_base64 = VALUES(public_key_base64), " +
-                "failed_attempts = VALUES(failed_attempts), lockout_stage = VALUES(lockout_stage), lockout_expiry_ms = VALUES(lockout_expiry_ms)";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
-            for (UserData user : users) {
-                stmt.setString(1, user.username);
-                stmt.setString(2, user.passwordHash);
-                stmt.setString(3, user.salt);
-                stmt.setString(4, user.publicKeyBase64);
-                stmt.setInt(5, user.failedAttempts);
-                stmt.setInt(6, user.lockoutStage);
-                stmt.setLong(7, user.lockoutExpiryMs);
-                stmt.executeUpdate();
-            }
+    /* A unit of JDBC work */
+    private interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+    private interface SqlTask {
+        void run() throws SQLException;
+    }
+
+    /* Runs inline on platform threads; virtual threads park on the result instead of pinning inside the driver */
+    private static <T> T callOnJdbcThread(SqlCall<T> work) throws SQLException {
+        if (!Thread.currentThread().isVirtual()) {
+            return work.call();
+        }
+        Future<T> result = JDBC_THREADS.submit(work::call);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for database", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sql) throw sql;
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new SQLException(cause);
         }
     }
 
-    public static List<FriendData> loadFriends() throws SQLException {
-        List<FriendData> friends = new ArrayList<>();
-        String sql = "SELECT u.username, GROUP_CONCAT(f.friend_id) AS friend_ids " +
-                "FROM users u LEFT JOIN friends f ON u.user_id = f.user_id " +
-                "GROUP BY u.user_id, u.username";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                FriendData friendData = new FriendData(rs.getString("username"));
-                String friendIds = rs.getString("friend_ids");
-                if (friendIds != null) {
-                    String sqlFriends = "SELECT username FROM users WHERE user_id IN (" + friendIds + ")";
-                    try (PreparedStatement stmtFriends = conn.prepareStatement(sqlFriends); ResultSet rsFriends = stmtFriends.executeQuery()) {
-                        while (rsFriends.next()) {
-                            friendData.getFriends().add(rsFriends.getString("username"));
-                        }
-                    }
+    private static void runOnJdbcThread(SqlTask work) throws SQLException {
+        callOnJdbcThread(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    public static List<UserData> loadUsers() throws SQLException {
+        return callOnJdbcThread(() -> {
+            List<UserData> users = new ArrayList<>();
+            String sql = "SELECT user_id, username, password_hash, salt, public_key_base64, failed_attempts, lockout_stage, lockout_expiry_ms FROM users";
+            try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    UserData user = new UserData();
+                    user.userId = rs.getInt("user_id");
+                    user.username = rs.getString("username");
+                    user.passwordHash = rs.getString("password_hash");
+                    user.salt = rs.getString("salt");
+                    user.publicKeyBase64 = rs.getString("public_key_base64");
+                    user.failedAttempts = rs.getInt("failed_attempts");
+                    user.lockoutStage = rs.getInt("lockout_stage");
+                    user.lockoutExpiryMs = rs.getLong("lockout_expiry_ms");
+                    users.add(user);
                 }
-                friends.add(friendData);
             }
-        }
-        return friends;
+            return users;
+        });
     }
 
-    public static void saveFriends(List<FriendData> friends) throws SQLException {
-        try (Connection conn = getConnection()) {
-            conn.setAutoCommit(false);
-            String deleteSql = "DELETE FROM friends WHERE user_id = (SELECT user_id FROM users WHERE username = ?)";
-            String insertSql = "INSERT INTO friends (user_id, friend_id) VALUES ((SELECT user_id FROM users WHERE username = ?), (SELECT user_id FROM users WHERE username = ?))";
-            try (PreparedStatement deleteStmt = conn.prepareStatement(deleteSql); PreparedStatement insertStmt = conn.prepareStatement(insertSql)) {
-                for (FriendData friendData : friends) {
-                    deleteStmt.setString(1, friendData.getUsername());
-                    deleteStmt.executeUpdate();
-                    for (String friend : friendData.getFriends()) {
-                        insertStmt.setString(1, friendData.getUsername());
-                        insertStmt.setString(2, friend);
-                        insertStmt.executeUpdate();
+    /* Inserts one new user and returns its generated user_id */
+    public static int insertUser(UserData user) throws SQLException {
+        return callOnJdbcThread(() -> {
+            String sql = "INSERT INTO users (username, password_hash, salt, public_key_base64, failed_attempts, lockout_stage, lockout_expiry_ms) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?)";
+            try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                bindUser(stmt, user);
+                stmt.executeUpdate();
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    if (!keys.next()) {
+                        throw new SQLException("No user_id generated for " + user.username);
                     }
+                    return keys.getInt(1);
                 }
-                conn.commit();
-            } catch (SQLException e) {
-                conn.rollback();
-                throw e;
             }
-        }
+        });
     }
 
-    public static List<FriendRequestData> loadRequests() throws SQLException {
-        List<FriendRequestData> requests = new ArrayList<>();
-        String sql = "SELECT u.username, GROUP_CONCAT(fr.sender_id) AS incoming_ids, GROUP_CONCAT(fr2.receiver_id) AS outgoing_ids " +
-                "FROM users u " +
-                "LEFT JOIN friend_requests fr ON u.user_id = fr.receiver_id AND fr.status = 'PENDING' " +
-                "LEFT JOIN friend_requests fr2 ON u.user_id = fr2.sender_id AND fr2.status = 'PENDING' " +
-                "GROUP BY u.user_id, u.username";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                FriendRequestData requestData = new FriendRequestData(rs.getString("username"));
-                String incomingIds = rs.getString("incoming_ids");
-                String outgoingIds = rs.getString("outgoing_ids");
-                if (incomingIds != null) {
-                    String sqlIncoming = "SELECT username FROM users WHERE user_id IN (" + incomingIds + ")";
-                    try (PreparedStatement stmtIncoming = conn.prepareStatement(sqlIncoming); ResultSet rsIncoming = stmtIncoming.executeQuery()) {
-                        while (rsIncoming.next()) {
-                            requestData.getIncoming().add(rsIncoming.getString("username"));
-                        }
+    /* Writes the given rows, matched by user_id, in one transaction */
+    public static void updateUsers(Collection<UserData> users) throws SQLException {
+        runOnJdbcThread(() -> {
+            String sql = "UPDATE users SET username = ?, password_hash = ?, salt = ?, public_key_base64 = ?, " +
+                    "failed_attempts = ?, lockout_stage = ?, lockout_expiry_ms = ? WHERE user_id = ?";
+            try (Connection conn = getConnection()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    for (UserData user : users) {
+                        bindUser(stmt, user);
+                        stmt.setInt(8, user.userId);
+                        stmt.addBatch();
                     }
+                    stmt.executeBatch();
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
                 }
-                if (outgoingIds != null) {
-                    String sqlOutgoing = "SELECT username FROM users WHERE user_id IN (" + outgoingIds + ")";
-                    try (PreparedStatement stmtOutgoing = conn.prepareStatement(sqlOutgoing); ResultSet rsOutgoing = stmtOutgoing.executeQuery()) {
-                        while (rsOutgoing.next()) {
-                            requestData.getOutgoing().add(rsOutgoing.getString("username"));
-                        }
-                    }
+            }
+        });
+    }
+
+    private static void bindUser(PreparedStatement stmt, UserData user) throws SQLException {
+        stmt.setString(1, user.username);
+        stmt.setString(2, user.passwordHash);
+        stmt.setString(3, user.salt);
+        stmt.setString(4, user.publicKeyBase64);
+        stmt.setInt(5, user.failedAttempts);
+        stmt.setInt(6, user.lockoutStage);
+        stmt.setLong(7, user.lockoutExpiryMs);
+    }
+
+    /* Every friends row as {user_id, friend_id}, for warming FriendGraph */
+    public static List<int[]> loadFriendships() throws SQLException {
+        return callOnJdbcThread(() -> {
+            List<int[]> pairs = new ArrayList<>();
+            String sql = "SELECT user_id, friend_id FROM friends";
+            try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    pairs.add(new int[]{rs.getInt(1), rs.getInt(2)});
                 }
-                requests.add(requestData);
             }
-        }
-        return requests;
+            return pairs;
+        });
     }
 
-    public static void saveRequests(List<FriendRequestData> requests) throws SQLException {
-        try (Connection conn = getConnection()) {
-            conn.setAutoCommit(false);
-            String deleteSql = "DELETE FROM friend_requests WHERE sender_id = (SELECT user_id FROM users WHERE username = ?)";
-            String insertSql = "INSERT INTO friend_requests (sender_id, receiver_id, status) VALUES ((SELECT user_id FROM users WHERE username = ?), (SELECT user_id FROM users WHERE username = ?), 'PENDING')";
-            try (PreparedStatement deleteStmt = conn.prepareStatement(deleteSql); PreparedStatement insertStmt = conn.prepareStatement(insertSql)) {
-                for (FriendRequestData requestData : requests) {
-                    // Delete only outgoing requests for this user
-                    deleteStmt.setString(1, requestData.getUsername());
-                    int rowsDeleted = deleteStmt.executeUpdate();
-                    System.out.println("Deleted " + rowsDeleted + " outgoing friend requests for user: " + requestData.getUsername());
+    /* Inserts the friendship rows for both directions */
+    public static void insertFriendship(int userId, int friendId) throws SQLException {
+        writeFriendship("INSERT IGNORE INTO friends (user_id, friend_id) VALUES (?, ?)", userId, friendId);
+    }
 
-                    // Insert outgoing requests
-                    for (String outgoing : requestData.getOutgoing()) {
-                        try {
-                            insertStmt.setString(1, requestData.getUsername());
-                            insertStmt.setString(2, outgoing);
-                            int rowsInserted = insertStmt.executeUpdate();
-                            System.out.println("Inserted friend request: " + requestData.getUsername() + " -> " + outgoing);
-                        } catch (SQLException e) {
-                            System.out.println("Failed to insert friend request: " + requestData.getUsername() + " -> " + outgoing + ". Error: " + e.getMessage());
-                            // Continue to avoid failing the entire transaction
-                        }
-                    }
+    /* Deletes the friendship rows for both directions */
+    public static void deleteFriendship(int userId, int friendId) throws SQLException {
+        writeFriendship("DELETE FROM friends WHERE user_id = ? AND friend_id = ?", userId, friendId);
+    }
+
+    private static void writeFriendship(String sql, int userId, int friendId) throws SQLException {
+        runOnJdbcThread(() -> {
+            try (Connection conn = getConnection()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setInt(1, userId);
+                    stmt.setInt(2, friendId);
+                    stmt.executeUpdate();
+                    stmt.setInt(1, friendId);
+                    stmt.setInt(2, userId);
+                    stmt.executeUpdate();
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
                 }
-                conn.commit();
-                System.out.println("Friend requests committed successfully.");
-            } catch (SQLException e) {
-                conn.rollback();
-                System.out.println("Rolling back friend requests update due to error: " + e.getMessage());
-                throw e;
             }
-        }
+        });
     }
 
-    public static List<ChatEntry> loadUndelivered() throws SQLException {
-        List<ChatEntry> messages = new ArrayList<>();
-        String sql = "SELECT u1.username AS sender, u2.username AS receiver, m.cipher, m.timestamp, m.delivered " +
-                "FROM pending_messages m " +
-                "JOIN users u1 ON m.sender_id = u1.user_id " +
-                "JOIN users u2 ON m.receiver_id = u2.user_id";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                messages.add(new ChatEntry(
-                        rs.getString("sender"),
-                        rs.getString("receiver"),
-                        rs.getString("cipher"),
-                        rs.getLong("timestamp"),
-                        rs.getBoolean("delivered")
-                ));
+    /* Every PENDING friend_requests row as {sender_id, receiver_id}, for warming FriendRequestIndex */
+    public static List<int[]> loadPendingFriendRequests() throws SQLException {
+        return callOnJdbcThread(() -> {
+            List<int[]> pending = new ArrayList<>();
+            String sql = "SELECT sender_id, receiver_id FROM friend_requests WHERE status = 'PENDING'";
+            try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    pending.add(new int[]{rs.getInt(1), rs.getInt(2)});
+                }
             }
-        }
-        return messages;
+            return pending;
+        });
+    }
+
+    /* Creates the request, or reopens an earlier accepted/rejected one for the same pair */
+    public static void upsertPendingFriendRequest(int senderId, int receiverId) throws SQLException {
+        runOnJdbcThread(() -> {
+            String sql = "INSERT INTO friend_requests (sender_id, receiver_id, status) VALUES (?, ?, 'PENDING') " +
+                    "ON DUPLICATE KEY UPDATE status = 'PENDING'";
+            try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setInt(1, senderId);
+                stmt.setInt(2, receiverId);
+                stmt.executeUpdate();
+            }
+        });
     }
 
-    public static void saveUndelivered(List<ChatEntry> messages) throws SQLException {
-        try (Connection conn = getConnection()) {
-            conn.setAutoCommit(false);
-            String deleteSql = "DELETE FROM pending_messages";
-            String insertSql = "INSERT INTO pending_messages (sender_id, receiver_id, cipher, timestamp, delivered) " +
-                    "VALUES ((SELECT user_id FROM users WHERE username = ?), (SELECT user_id FROM users WHERE username = ?), ?, ?, ?)";
-            try (PreparedStatement deleteStmt = conn.prepareStatement(deleteSql); PreparedStatement insertStmt = conn.prepareStatement(insertSql)) {
-                deleteStmt.executeUpdate();
-                for (ChatEntry msg : messages) {
-                    insertStmt.setString(1, msg.sender);
-                    insertStmt.setString(2, msg.receiver);
-                    insertStmt.setString(3, msg.cipher);
-                    insertStmt.setLong(4, msg.timestamp);
-                    insertStmt.setBoolean(5, msg.delivered);
-                    insertStmt.executeUpdate();
+    /* Moves one request to ACCEPTED or REJECTED via the (sender_id, receiver_id) unique key */
+    public static void setFriendRequestStatus(int senderId, int receiverId, String status) throws SQLException {
+        runOnJdbcThread(() -> {
+            String sql = "UPDATE friend_requests SET status = ? WHERE sender_id = ? AND receiver_id = ?";
+            try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, status);
+                stmt.setInt(2, senderId);
+                stmt.setInt(3, receiverId);
+                stmt.executeUpdate();
+            }
+        });
+    }
+
+    /* Inserts pending messages in one transaction; the group commit in MessageStore supplies the batch */
+    public static void insertPendingMessages(List<ChatEntry> messages) throws SQLException {
+        runOnJdbcThread(() -> {
+            String sql = "INSERT INTO pending_messages (sender_id, receiver_id, cipher, timestamp, delivered) VALUES (?, ?, ?, ?, FALSE)";
+            try (Connection conn = getConnection()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    for (ChatEntry msg : messages) {
+                        stmt.setInt(1, msg.senderId);
+                        stmt.setInt(2, msg.receiverId);
+                        stmt.setString(3, msg.cipher);
+                        stmt.setLong(4, msg.timestamp);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
                 }
-                conn.commit();
-            } catch (SQLException e) {
-                conn.rollback();
-                throw e;
             }
-        }
+        });
     }
 
-    public static List<ChatEntry> getUndeliveredMessages(String username, String peerName) throws SQLException {
-        List<ChatEntry> messages = new ArrayList<>();
-        String sql = "SELECT u1.username AS sender, u2.username AS receiver, m.cipher, m.timestamp, m.delivered " +
-                "FROM pending_messages m " +
-                "JOIN users u1 ON m.sender_id = u1.user_id " +
-                "JOIN users u2 ON m.receiver_id = u2.user_id " +
-                "WHERE (u1.username = ? AND u2.username = ? OR u1.username = ? AND u2.username = ?) AND m.delivered = FALSE";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, username);
-            stmt.setString(2, peerName);
-            stmt.setString(3, peerName);
-            stmt.setString(4, username);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    messages.add(new ChatEntry(
-                            rs.getString("sender"),
-                            rs.getString("receiver"),
-                            rs.getString("cipher"),
-                            rs.getLong("timestamp"),
-                            rs.getBoolean("delivered")
-                    ));
+    /* Pending messages from one sender to one receiver, oldest first; served by idx_pending_receiver */
+    public static List<ChatEntry> loadPendingMessages(int receiverId, int senderId) throws SQLException {
+        return callOnJdbcThread(() -> {
+            List<ChatEntry> messages = new ArrayList<>();
+            String sql = "SELECT m.message_id, u1.username AS sender, u2.username AS receiver, m.cipher, m.timestamp, m.delivered " +
+                    "FROM pending_messages m " +
+                    "JOIN users u1 ON m.sender_id = u1.user_id " +
+                    "JOIN users u2 ON m.receiver_id = u2.user_id " +
+                    "WHERE m.receiver_id = ? AND m.sender_id = ? ORDER BY m.message_id";
+            try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setInt(1, receiverId);
+                stmt.setInt(2, senderId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        ChatEntry entry = new ChatEntry(
+                                rs.getString("sender"),
+                                rs.getString("receiver"),
+                                rs.getString("cipher"),
+                                rs.getLong("timestamp"),
+                                rs.getBoolean("delivered")
+                        );
+                        entry.id = rs.getLong("message_id");
+                        entry.senderId = senderId;
+                        entry.receiverId = receiverId;
+                        messages.add(entry);
+                    }
                 }
             }
-        }
-        return messages;
+            return messages;
+        });
     }
 
-    public static void removeDeliveredMessages(String username, String peerName) throws SQLException {
-        String sql = "DELETE FROM pending_messages WHERE sender_id = (SELECT user_id FROM users WHERE username = ?) AND receiver_id = (SELECT user_id FROM users WHERE username = ?)";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, peerName);
-            stmt.setString(2, username);
-            stmt.executeUpdate();
-        }
+    /* Deletes exactly the given pending messages in one statement */
+    public static void deletePendingMessages(List<Long> messageIds) throws SQLException {
+        if (messageIds.isEmpty()) return;
+        runOnJdbcThread(() -> {
+            String sql = "DELETE FROM pending_messages WHERE message_id IN ("
+                    + String.join(", ", Collections.nCopies(messageIds.size(), "?")) + ")";
+            try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < messageIds.size(); i++) {
+                    stmt.setLong(i + 1, messageIds.get(i));
+                }
+                stmt.executeUpdate();
+            }
+        });
     }
 }
\ No newline at end of file
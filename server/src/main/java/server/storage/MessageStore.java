@@ -3,22 +3,125 @@ package server.storage;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 
+/*
+ * Offline message queue backed by pending_messages. Enqueues from concurrent senders are group-committed:
+ * one committer thread takes everything that arrived while the previous transaction was running and
+ * inserts it in a single transaction, and each sender returns once its row is committed. Deletes of
+ * delivered messages are batched the same way on a second thread, so writers never wait on them.
+ */
 public class MessageStore {
-    public static List<ChatEntry> loadUndelivered() throws SQLException {
-        return DatabaseStore.loadUndelivered();
+    private static final int MAX_GROUP = 256;
+    private static final BlockingQueue<Enqueue> enqueues = new LinkedBlockingQueue<>();
+    private static final BlockingQueue<Delete> deletes = new LinkedBlockingQueue<>();
+
+    private record Enqueue(ChatEntry entry, CompletableFuture<Void> committed) {}
+
+    private record Delete(long messageId, CompletableFuture<Void> committed) {}
+
+    static {
+        Thread committer = new Thread(MessageStore::commitLoop, "message-group-commit");
+        committer.setDaemon(true);
+        committer.start();
+        Thread deleter = new Thread(MessageStore::deleteLoop, "message-delete");
+        deleter.setDaemon(true);
+        deleter.start();
+    }
+
+    /* Stores one undelivered message; returns after it is committed */
+    public static void enqueue(int senderId, int receiverId, String cipher, long timestamp) throws SQLException {
+        ChatEntry entry = new ChatEntry(null, null, cipher, timestamp, false);
+        entry.senderId = senderId;
+        entry.receiverId = receiverId;
+        Enqueue request = new Enqueue(entry, new CompletableFuture<>());
+        enqueues.add(request);
+        try {
+            request.committed().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for message commit", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sql) throw sql;
+            throw new SQLException(cause);
+        }
+    }
+
+    /* Messages waiting for receiverId from senderId, oldest first */
+    public static List<ChatEntry> pendingFor(int receiverId, int senderId) throws SQLException {
+        return DatabaseStore.loadPendingMessages(receiverId, senderId);
+    }
+
+    /* Removes the messages that were actually handed to the receiver */
+    public static void delete(List<Long> messageIds) throws SQLException {
+        DatabaseStore.deletePendingMessages(messageIds);
     }
 
-    public static void saveUndelivered(List<ChatEntry> list) throws SQLException {
-        DatabaseStore.saveUndelivered(list);
+    /* Queues the deletion of one message the receiver has been sent; completes once it is committed */
+    public static CompletableFuture<Void> deleteDelivered(long messageId) {
+        Delete request = new Delete(messageId, new CompletableFuture<>());
+        deletes.add(request);
+        return request.committed();
     }
 
-    public static List<ChatEntry> getUndeliveredMessages(String username, String peerName) throws SQLException {
-        return DatabaseStore.getUndeliveredMessages(username, peerName);
+    private static void commitLoop() {
+        List<Enqueue> group = new ArrayList<>();
+        List<ChatEntry> rows = new ArrayList<>();
+        while (true) {
+            try {
+                group.add(enqueues.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            enqueues.drainTo(group, MAX_GROUP - 1);
+            for (Enqueue request : group) {
+                rows.add(request.entry());
+            }
+            try {
+                DatabaseStore.insertPendingMessages(rows);
+                for (Enqueue request : group) {
+                    request.committed().complete(null);
+                }
+            } catch (SQLException | RuntimeException e) {
+                for (Enqueue request : group) {
+                    request.committed().completeExceptionally(e);
+                }
+            }
+            group.clear();
+            rows.clear();
+        }
     }
 
-    public static void removeDeliveredMessages(String username, String peerName) throws SQLException {
-        DatabaseStore.removeDeliveredMessages(username, peerName);
+    private static void deleteLoop() {
+        List<Delete> group = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        while (true) {
+            try {
+                group.add(deletes.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            deletes.drainTo(group, MAX_GROUP - 1);
+            for (Delete request : group) {
+                ids.add(request.messageId());
+            }
+            try {
+                DatabaseStore.deletePendingMessages(ids);
+                for (Delete request : group) {
+                    request.committed().complete(null);
+                }
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Failed to delete " + ids.size() + " delivered messages: " + e.getMessage());
+                for (Delete request : group) {
+                    request.committed().completeExceptionally(e);
+                }
+            }
+            group.clear();
+            ids.clear();
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package server.storage;
 
 public class UserData {
+    public int    userId;
     public String username;
     public String passwordHash;
     public String salt;
@@ -18,4 +19,15 @@ public class UserData {
         this.passwordHash = passwordHash;
         this.salt = salt;
     }
+
+    /* Snapshot of the current field values, so a queued write is not affected by later changes */
+    public UserData copy() {
+        UserData c = new UserData(username, passwordHash, salt);
+        c.userId = userId;
+        c.publicKeyBase64 = publicKeyBase64;
+        c.failedAttempts = failedAttempts;
+        c.lockoutExpiryMs = lockoutExpiryMs;
+        c.lockoutStage = lockoutStage;
+        return c;
+    }
 }
\ No newline at end of file
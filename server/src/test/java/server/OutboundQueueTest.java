@@ -0,0 +1,180 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+import shared.Message;
+import shared.MessageType;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+    // The server.outbound.* defaults
+    private static final int CAPACITY = 1024;
+    private static final int HIGH_WATERMARK = 256;
+
+    private final ManualExecutor writer = new ManualExecutor();
+    private final RecordingSink sink = new RecordingSink();
+    private final OutboundQueue queue = new OutboundQueue(writer, sink);
+
+    @Test
+    void messagesGoOutInOrderAndCallbacksWaitForTheFlush() {
+        List<String> written = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String content = "m" + i;
+            assertTrue(queue.offer(message(content), () -> written.add(content)));
+        }
+        assertEquals(List.of(), written);
+
+        writer.runAll();
+        assertEquals(List.of("m0", "m1", "m2"), sink.contents());
+        assertEquals(List.of("m0", "m1", "m2"), written);
+        assertEquals(1, sink.flushes);
+    }
+
+    @Test
+    void callbacksRunOnlyOnceAShortFlushCompletes() {
+        List<String> written = new ArrayList<>();
+        sink.socketFull = true;
+        queue.offer(message("m0"), () -> written.add("m0"));
+        writer.runAll();
+        assertEquals(List.of("m0"), sink.contents());
+        assertEquals(List.of(), written);
+
+        sink.socketFull = false;
+        queue.resume();
+        assertEquals(List.of("m0"), written);
+    }
+
+    @Test
+    void backlogAboveHighWatermarkIsUnwritableUntilDrained() {
+        for (int i = 0; i < HIGH_WATERMARK - 1; i++) {
+            queue.offer(message("m" + i));
+        }
+        assertTrue(queue.isWritable());
+        queue.offer(message("last"));
+        assertFalse(queue.isWritable());
+
+        writer.runAll();
+        assertTrue(queue.isWritable());
+        assertEquals(HIGH_WATERMARK, sink.written.size());
+    }
+
+    @Test
+    void overflowDropsTheConnectionAndItsCallbacks() {
+        int[] callbacks = {0};
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(queue.offer(message("m" + i), () -> callbacks[0]++));
+        }
+        assertFalse(queue.offer(message("one too many")));
+        assertTrue(sink.abortReason.contains("overflow"));
+
+        // Nothing queued before the overflow goes out, so no callback claims it was written
+        writer.runAll();
+        assertEquals(0, sink.written.size());
+        assertEquals(0, callbacks[0]);
+        assertFalse(queue.offer(message("after")));
+        assertFalse(queue.isWritable());
+    }
+
+    @Test
+    void runtimeExceptionFromTheSinkDropsTheConnection() {
+        sink.failOn = "bad";
+        queue.offer(message("ok"));
+        queue.offer(message("bad"));
+        writer.runAll();
+        assertTrue(sink.abortReason.contains("IllegalStateException"));
+        assertFalse(queue.offer(message("after")));
+    }
+
+    @Test
+    void ioExceptionFromTheSinkDropsTheConnection() {
+        sink.flushError = new IOException("connection reset");
+        queue.offer(message("m0"), () -> { throw new AssertionError("callback after a failed flush"); });
+        writer.runAll();
+        assertEquals("connection reset", sink.abortReason);
+    }
+
+    @Test
+    void closeWhenDrainedSendsWhatWasQueuedFirst() {
+        queue.offer(message("m0"));
+        queue.offer(message("m1"));
+        queue.closeWhenDrained();
+        assertFalse(queue.offer(message("late")));
+
+        writer.runAll();
+        assertEquals(List.of("m0", "m1"), sink.contents());
+        assertTrue(sink.closedGracefully);
+        assertNull(sink.abortReason);
+    }
+
+    private static Message message(String content) {
+        return new Message(MessageType.CHAT_MESSAGE, "alice", "bob", content);
+    }
+
+    /* Runs drains only when the test says so */
+    private static final class ManualExecutor implements Executor {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static final class RecordingSink implements OutboundQueue.Sink {
+        final List<Message> written = new ArrayList<>();
+        int flushes;
+        boolean socketFull;
+        String failOn;
+        IOException flushError;
+        boolean closedGracefully;
+        String abortReason;
+
+        @Override
+        public void write(Message msg) {
+            if (msg.getContent().equals(failOn)) throw new IllegalStateException("cannot encode " + failOn);
+            written.add(msg);
+        }
+
+        @Override
+        public boolean flush() throws IOException {
+            if (flushError != null) throw flushError;
+            flushes++;
+            return !socketFull;
+        }
+
+        @Override
+        public void closeGracefully() {
+            closedGracefully = true;
+        }
+
+        @Override
+        public void abort(String reason) {
+            abortReason = reason;
+        }
+
+        List<String> contents() {
+            List<String> contents = new ArrayList<>();
+            for (Message msg : written) {
+                contents.add(msg.getContent());
+            }
+            return contents;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+import shared.Message;
+import shared.MessageType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SerializationFrameScannerTest {
+    // Magic number and version, which ObjectInputStream reads before the first object
+    private static final int HEADER = 4;
+
+    @Test
+    void scannedFramesMatchWhatObjectInputStreamReads() throws Exception {
+        List<Message> sent = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            for (int i = 0; i < 20; i++) {
+                Message msg = new Message(MessageType.CHAT_MESSAGE, "alice", "bob", "cipher-" + i);
+                msg.setClientId(i);
+                sent.add(msg);
+                // Later objects refer back to the first one's class descriptors and strings
+                out.writeObject(msg);
+                if (i == 10) out.reset();
+            }
+        }
+        byte[] stream = bytes.toByteArray();
+
+        SerializationFrameScanner scanner = new SerializationFrameScanner();
+        ByteArrayInputStream raw = new ByteArrayInputStream(stream);
+        ObjectInputStream in = new ObjectInputStream(raw);
+        int pos = HEADER;
+        for (Message expected : sent) {
+            int end = scanner.scan(stream, pos, stream.length);
+            // The scanner and a real reader agree on where each object ends
+            Message read = (Message) in.readObject();
+            assertEquals(stream.length - end, raw.available());
+            assertEquals(expected.getContent(), read.getContent());
+            assertEquals(expected.getClientId(), read.getClientId());
+            pos = end;
+        }
+        assertEquals(stream.length, pos);
+    }
+
+    @Test
+    void everyTruncationNeedsMoreBytesAndKeepsState() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new Message(MessageType.CHAT, "alice", "bob", "first"));
+            out.writeObject(new Message(MessageType.CHAT, "alice", "bob", "second"));
+        }
+        byte[] stream = bytes.toByteArray();
+
+        SerializationFrameScanner scanner = new SerializationFrameScanner();
+        int first = scanner.scan(stream, HEADER, stream.length);
+        // The second object only refers back to descriptors; a failed partial scan must not forget them
+        for (int to = first; to < stream.length; to++) {
+            assertEquals(-1, scanner.scan(stream, first, to));
+        }
+        assertEquals(stream.length, scanner.scan(stream, first, stream.length));
+    }
+
+    @Test
+    void oversizedLengthsAreRejectedOrWaitedOn() throws IOException {
+        ByteArrayOutputStream longString = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(longString);
+        out.writeByte(ObjectStreamConstants.TC_LONGSTRING);
+        out.writeLong(Integer.MAX_VALUE + 1L);
+        byte[] tooLong = longString.toByteArray();
+        assertThrows(StreamCorruptedException.class, () -> new SerializationFrameScanner().scan(tooLong, 0, tooLong.length));
+
+        // An int[] whose byte length overflows an int is simply incomplete, not a negative skip
+        ByteArrayOutputStream array = new ByteArrayOutputStream();
+        try (ObjectOutputStream objects = new ObjectOutputStream(array)) {
+            objects.writeObject(new int[1]);
+        }
+        byte[] huge = array.toByteArray();
+        int sizeAt = huge.length - Integer.BYTES * 2;
+        huge[sizeAt] = 0x7F;
+        huge[sizeAt + 1] = (byte) 0xFF;
+        huge[sizeAt + 2] = (byte) 0xFF;
+        huge[sizeAt + 3] = (byte) 0xFF;
+        assertEquals(-1, new SerializationFrameScanner().scan(huge, HEADER, huge.length));
+    }
+
+    @Test
+    void unknownTypeCodeIsRejected() {
+        byte[] garbage = {(byte) 0x42, 0, 0, 0};
+        assertThrows(StreamCorruptedException.class, () -> new SerializationFrameScanner().scan(garbage, 0, garbage.length));
+    }
+}
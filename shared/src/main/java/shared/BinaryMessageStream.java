@@ -0,0 +1,77 @@
+package shared;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/* MessageCodec frames over blocking streams, reusing one read and one write buffer per connection */
+final class BinaryMessageStream implements MessageStream {
+    private final InputStream in;
+    private final OutputStream out;
+    private final MessageCodec codec = new MessageCodec();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(512);
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(512);
+
+    BinaryMessageStream(InputStream in, OutputStream out) {
+        this.in = new BufferedInputStream(in);
+        this.out = new BufferedOutputStream(out);
+    }
+
+    @Override
+    public Message read() throws IOException {
+        readBuffer.clear();
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            if (shift >= 35) throw new StreamCorruptedException("Varint too long");
+            readBuffer.put((byte) b);
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        if (length < 0 || length > MessageCodec.MAX_FRAME) {
+            throw new StreamCorruptedException("Bad frame length " + length);
+        }
+        if (readBuffer.remaining() < length) {
+            ByteBuffer grown = ByteBuffer.allocate(readBuffer.position() + length);
+            readBuffer.flip();
+            grown.put(readBuffer);
+            readBuffer = grown;
+        }
+        int n = in.readNBytes(readBuffer.array(), readBuffer.position(), length);
+        if (n < length) throw new EOFException();
+        readBuffer.position(readBuffer.position() + length).flip();
+        return codec.decode(readBuffer);
+    }
+
+    @Override
+    public void write(Message msg) throws IOException {
+        writeBuffer.clear();
+        if (!codec.encode(msg, writeBuffer)) {
+            writeBuffer = ByteBuffer.allocate(Math.max(codec.frameSize(msg), writeBuffer.capacity() * 2));
+            codec.encode(msg, writeBuffer);
+        }
+        out.write(writeBuffer.array(), 0, writeBuffer.position());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+        out.close();
+    }
+}
@@ -3,10 +3,15 @@ package shared;
 import java.io.Serializable;
 
 public class Message implements Serializable {
+    // The value computed before clientId was added, so Java serialization peers still read each other
+    private static final long serialVersionUID = 1212466650101920251L;
+
     private MessageType type;
     private String sender;
     private String receiver;
     private String content;
+    // Numbered by the client's send queue, increasing in send order, so the server can drop resent copies; 0 = none
+    private int clientId;
 
     public Message(MessageType type, String sender, String receiver, String content) {
         this.type = type;
@@ -19,9 +24,11 @@ public class Message implements Serializable {
     public String getSender() { return sender; }
     public String getReceiver() { return receiver; }
     public String getContent() { return content; }
+    public int getClientId() { return clientId; }
 
     public void setType(MessageType type) { this.type = type; }
     public void setSender(String sender) { this.sender = sender; }
     public void setReceiver(String receiver) { this.receiver = receiver; }
     public void setContent(String content) { this.content = content; }
+    public void setClientId(int clientId) { this.clientId = clientId; }
 }
\ No newline at end of file
@@ -0,0 +1,339 @@
+package shared;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary wire format for {@link Message}, used instead of Java serialization once both ends
+ * agree on it (see {@link MessageStream}).
+ *
+ * <pre>
+ * frame   = varint(bodyLength) body
+ * body    = varint(type ordinal) flags [sender] [receiver] [content] [varint(clientId)]
+ * string  = varint(utf8Length) utf8Bytes
+ * content = string                                   (flags & CONTENT_BINARY == 0)
+ *         | varint(rawLength) rawBytes string(tail)  (flags & CONTENT_BINARY != 0)
+ * </pre>
+ *
+ * Ciphertext travels as a canonical Base64 prefix of the content (e.g. {@code cipher|IN_CHAT}); that
+ * prefix is sent as its raw bytes and re-encoded on decode, which saves a quarter of the payload.
+ * Encoding writes straight into the caller's buffer. A codec instance keeps decode scratch space, so
+ * give each reading thread its own.
+ */
+public final class MessageCodec {
+    /** Sent by a client that speaks this format; the server echoes it back to accept. */
+    public static final byte[] HELLO = {'S', 'M', 'B', 1};
+    public static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    private static final int HAS_SENDER = 1;
+    private static final int HAS_RECEIVER = 1 << 1;
+    private static final int HAS_CONTENT = 1 << 2;
+    private static final int CONTENT_BINARY = 1 << 3;
+    private static final int HAS_CLIENT_ID = 1 << 4;
+    private static final int MIN_BINARY_RUN = 16;
+
+    private static final MessageType[] TYPES = MessageType.values();
+    private static final char[] B64_CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final byte[] B64_VALUES = new byte[128];
+
+    static {
+        java.util.Arrays.fill(B64_VALUES, (byte) -1);
+        for (int i = 0; i < B64_CHARS.length; i++) {
+            B64_VALUES[B64_CHARS[i]] = (byte) i;
+        }
+    }
+
+    private char[] chars = new char[256];
+
+    /** Total encoded size of the message, including the length prefix. */
+    public int frameSize(Message msg) {
+        int body = bodySize(msg, base64Prefix(msg.getContent()));
+        return varintSize(body) + body;
+    }
+
+    /**
+     * Appends one frame to {@code dst}. Returns false and leaves {@code dst} untouched when it does not
+     * have room; size a bigger buffer with {@link #frameSize}.
+     */
+    public boolean encode(Message msg, ByteBuffer dst) {
+        String content = msg.getContent();
+        int run = base64Prefix(content);
+        int body = bodySize(msg, run);
+        if (dst.remaining() < varintSize(body) + body) {
+            return false;
+        }
+        int flags = (msg.getSender() != null ? HAS_SENDER : 0)
+                | (msg.getReceiver() != null ? HAS_RECEIVER : 0)
+                | (content != null ? HAS_CONTENT : 0)
+                | (run > 0 ? CONTENT_BINARY : 0)
+                | (msg.getClientId() != 0 ? HAS_CLIENT_ID : 0);
+        writeVarint(dst, body);
+        writeVarint(dst, msg.getType().ordinal());
+        dst.put((byte) flags);
+        if (msg.getSender() != null) writeString(dst, msg.getSender(), 0);
+        if (msg.getReceiver() != null) writeString(dst, msg.getReceiver(), 0);
+        if (content != null) {
+            if (run > 0) {
+                writeVarint(dst, rawLength(content, run));
+                writeBase64Raw(dst, content, run);
+            }
+            writeString(dst, content, run);
+        }
+        if (msg.getClientId() != 0) writeVarint(dst, msg.getClientId());
+        return true;
+    }
+
+    /**
+     * Reads one frame from {@code src}. Returns null and leaves {@code src} untouched if the frame is not
+     * complete yet.
+     */
+    public Message decode(ByteBuffer src) throws StreamCorruptedException {
+        int start = src.position();
+        int body = readVarint(src);
+        if (body < 0 || src.remaining() < body) {
+            src.position(start);
+            return null;
+        }
+        if (body > MAX_FRAME) {
+            throw new StreamCorruptedException("Frame of " + body + " bytes exceeds " + MAX_FRAME);
+        }
+        int end = src.position() + body;
+        int ordinal = readVarint(src);
+        if (ordinal < 0 || ordinal >= TYPES.length || src.position() >= end) {
+            throw new StreamCorruptedException("Unknown message type " + ordinal);
+        }
+        int flags = src.get();
+        String sender = (flags & HAS_SENDER) != 0 ? readString(src, end, 0) : null;
+        String receiver = (flags & HAS_RECEIVER) != 0 ? readString(src, end, 0) : null;
+        String content = null;
+        if ((flags & HAS_CONTENT) != 0) {
+            int prefix = 0;
+            if ((flags & CONTENT_BINARY) != 0) {
+                prefix = readBase64Raw(src, end);
+            }
+            content = readString(src, end, prefix);
+        }
+        int clientId = 0;
+        if ((flags & HAS_CLIENT_ID) != 0) {
+            clientId = readVarint(src);
+            if (clientId < 0) throw new StreamCorruptedException("Truncated client id");
+        }
+        if (src.position() != end) {
+            throw new StreamCorruptedException("Frame length mismatch");
+        }
+        Message msg = new Message(TYPES[ordinal], sender, receiver, content);
+        msg.setClientId(clientId);
+        return msg;
+    }
+
+    private static int bodySize(Message msg, int run) {
+        int size = varintSize(msg.getType().ordinal()) + 1;
+        if (msg.getSender() != null) size += stringSize(msg.getSender(), 0);
+        if (msg.getReceiver() != null) size += stringSize(msg.getReceiver(), 0);
+        String content = msg.getContent();
+        if (content != null) {
+            if (run > 0) {
+                int raw = rawLength(content, run);
+                size += varintSize(raw) + raw;
+            }
+            size += stringSize(content, run);
+        }
+        if (msg.getClientId() != 0) size += varintSize(msg.getClientId());
+        return size;
+    }
+
+    /* ---- Base64 prefix handling ---- */
+
+    /* Length of the leading canonical Base64 run worth sending raw, or 0 */
+    static int base64Prefix(String s) {
+        if (s == null) return 0;
+        int n = s.length();
+        int i = 0;
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c >= 128 || B64_VALUES[c] < 0) break;
+            i++;
+        }
+        int pad = 0;
+        while (pad < 2 && i + pad < n && s.charAt(i + pad) == '=') pad++;
+        int run = i + pad;
+        if (run < MIN_BINARY_RUN || run % 4 != 0) return 0;
+        if (pad > 0) {
+            // Unused low bits of the last data char must be zero or re-encoding would not reproduce it
+            int last = B64_VALUES[s.charAt(i - 1)];
+            if ((last & (pad == 1 ? 0x3 : 0xF)) != 0) return 0;
+        }
+        return run;
+    }
+
+    private static int rawLength(String s, int run) {
+        int pad = s.charAt(run - 1) == '=' ? (s.charAt(run - 2) == '=' ? 2 : 1) : 0;
+        return run / 4 * 3 - pad;
+    }
+
+    private static void writeBase64Raw(ByteBuffer dst, String s, int run) {
+        for (int i = 0; i < run; i += 4) {
+            int v = (B64_VALUES[s.charAt(i)] << 18) | (B64_VALUES[s.charAt(i + 1)] << 12);
+            char c2 = s.charAt(i + 2);
+            char c3 = s.charAt(i + 3);
+            dst.put((byte) (v >> 16));
+            if (c2 == '=') break;
+            v |= B64_VALUES[c2] << 6;
+            dst.put((byte) (v >> 8));
+            if (c3 == '=') break;
+            v |= B64_VALUES[c3];
+            dst.put((byte) v);
+        }
+    }
+
+    /* Re-encodes raw bytes into the scratch buffer; returns the number of chars written */
+    private int readBase64Raw(ByteBuffer src, int end) throws StreamCorruptedException {
+        int raw = readVarint(src);
+        if (raw < 0 || raw > end - src.position()) throw new StreamCorruptedException("Bad binary length");
+        int needed = (raw + 2) / 3 * 4;
+        ensureChars(needed + 64);
+        int out = 0;
+        for (int i = 0; i < raw; i += 3) {
+            int b0 = src.get() & 0xFF;
+            int b1 = i + 1 < raw ? src.get() & 0xFF : 0;
+            int b2 = i + 2 < raw ? src.get() & 0xFF : 0;
+            chars[out++] = B64_CHARS[b0 >> 2];
+            chars[out++] = B64_CHARS[((b0 & 0x3) << 4) | (b1 >> 4)];
+            chars[out++] = i + 1 < raw ? B64_CHARS[((b1 & 0xF) << 2) | (b2 >> 6)] : '=';
+            chars[out++] = i + 2 < raw ? B64_CHARS[b2 & 0x3F] : '=';
+        }
+        return out;
+    }
+
+    /* ---- UTF-8 strings ---- */
+
+    private static int stringSize(String s, int from) {
+        int len = utf8Length(s, from);
+        return varintSize(len) + len;
+    }
+
+    private static int utf8Length(String s, int from) {
+        int len = 0;
+        for (int i = from, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                len++;
+            } else if (c < 0x800) {
+                len += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                len += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                len++; // unpaired surrogate is sent as '?', like String.getBytes
+            } else {
+                len += 3;
+            }
+        }
+        return len;
+    }
+
+    private static void writeString(ByteBuffer dst, String s, int from) {
+        writeVarint(dst, utf8Length(s, from));
+        for (int i = from, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst.put((byte) c);
+            } else if (c < 0x800) {
+                dst.put((byte) (0xC0 | (c >> 6)));
+                dst.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                dst.put((byte) (0xF0 | (cp >> 18)));
+                dst.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                dst.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                dst.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                dst.put((byte) '?');
+            } else {
+                dst.put((byte) (0xE0 | (c >> 12)));
+                dst.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                dst.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /* Decodes a string, appending after the first {@code prefix} chars already in the scratch buffer */
+    private String readString(ByteBuffer src, int end, int prefix) throws StreamCorruptedException {
+        int len = readVarint(src);
+        if (len < 0 || len > end - src.position()) throw new StreamCorruptedException("Bad string length");
+        ensureChars(prefix + len);
+        int out = prefix;
+        int stop = src.position() + len;
+        while (src.position() < stop) {
+            int b = src.get() & 0xFF;
+            if (b < 0x80) {
+                chars[out++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[out++] = (char) (((b & 0x1F) << 6) | continuation(src, stop));
+            } else if ((b & 0xF0) == 0xE0) {
+                int c = ((b & 0x0F) << 12) | (continuation(src, stop) << 6);
+                chars[out++] = (char) (c | continuation(src, stop));
+            } else if ((b & 0xF8) == 0xF0) {
+                int cp = ((b & 0x07) << 18) | (continuation(src, stop) << 12);
+                cp |= continuation(src, stop) << 6;
+                cp |= continuation(src, stop);
+                if (cp < 0x10000 || cp > Character.MAX_CODE_POINT) throw new StreamCorruptedException("Bad UTF-8");
+                chars[out++] = Character.highSurrogate(cp);
+                chars[out++] = Character.lowSurrogate(cp);
+            } else {
+                throw new StreamCorruptedException("Bad UTF-8");
+            }
+        }
+        return new String(chars, 0, out);
+    }
+
+    private static int continuation(ByteBuffer src, int stop) throws StreamCorruptedException {
+        if (src.position() >= stop) throw new StreamCorruptedException("Truncated UTF-8");
+        int b = src.get() & 0xFF;
+        if ((b & 0xC0) != 0x80) throw new StreamCorruptedException("Bad UTF-8");
+        return b & 0x3F;
+    }
+
+    private void ensureChars(int n) {
+        if (chars.length < n) {
+            char[] grown = new char[Math.max(n, chars.length * 2)];
+            System.arraycopy(chars, 0, grown, 0, chars.length);
+            chars = grown;
+        }
+    }
+
+    /* ---- varints (unsigned LEB128) ---- */
+
+    static int varintSize(int v) {
+        int size = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void writeVarint(ByteBuffer dst, int v) {
+        while ((v & ~0x7F) != 0) {
+            dst.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        dst.put((byte) v);
+    }
+
+    /* Returns -1 if the buffer ends inside the varint */
+    static int readVarint(ByteBuffer src) throws StreamCorruptedException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!src.hasRemaining()) return -1;
+            int b = src.get();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (v < 0) throw new StreamCorruptedException("Varint out of range");
+                return v;
+            }
+        }
+        throw new StreamCorruptedException("Varint too long");
+    }
+}
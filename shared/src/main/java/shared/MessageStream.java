@@ -0,0 +1,70 @@
+package shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+/**
+ * Blocking, socket-level reader/writer of {@link Message}s in whichever wire format the two ends
+ * agreed on at connect time.
+ *
+ * <p>Handshake: a client that supports {@link MessageCodec} opens with {@link MessageCodec#HELLO};
+ * a server that supports it answers with the same four bytes. Old clients open with the Java
+ * serialization header instead and are served with ObjectStreams as before. An old server answers a
+ * HELLO with its own serialization header, which tells a new client to reconnect in legacy mode.
+ */
+public interface MessageStream extends Closeable {
+    byte[] LEGACY_HEADER = {(byte) 0xAC, (byte) 0xED, 0x00, 0x05};
+
+    /** Blocks until the next message arrives. */
+    Message read() throws IOException, ClassNotFoundException;
+
+    /** Buffers a message; nothing is sent until {@link #flush()}. */
+    void write(Message msg) throws IOException;
+
+    void flush() throws IOException;
+
+    /** True when talking the binary format rather than Java serialization. */
+    boolean isBinary();
+
+    /** Server side: sniffs the client's first bytes and answers in the matching format. */
+    static MessageStream accept(InputStream in, OutputStream out) throws IOException {
+        byte[] first = in.readNBytes(4);
+        if (Arrays.equals(first, MessageCodec.HELLO)) {
+            out.write(MessageCodec.HELLO);
+            out.flush();
+            return new BinaryMessageStream(in, out);
+        }
+        if (Arrays.equals(first, LEGACY_HEADER)) {
+            return new ObjectMessageStream(new SequenceInputStream(new ByteArrayInputStream(first), in), out);
+        }
+        throw new StreamCorruptedException("Unknown protocol preamble " + Arrays.toString(first));
+    }
+
+    /**
+     * Client side: offers the binary format. Returns null if the server only understands Java
+     * serialization; the socket is then unusable and the caller should reconnect with {@link #legacy}.
+     */
+    static MessageStream connect(InputStream in, OutputStream out) throws IOException {
+        out.write(MessageCodec.HELLO);
+        out.flush();
+        byte[] reply = in.readNBytes(4);
+        if (Arrays.equals(reply, MessageCodec.HELLO)) {
+            return new BinaryMessageStream(in, out);
+        }
+        if (Arrays.equals(reply, LEGACY_HEADER)) {
+            return null;
+        }
+        throw new StreamCorruptedException("Unexpected server preamble " + Arrays.toString(reply));
+    }
+
+    /** Client side for servers that predate the handshake. */
+    static MessageStream legacy(InputStream in, OutputStream out) throws IOException {
+        return new ObjectMessageStream(in, out);
+    }
+}
@@ -14,5 +14,7 @@ public enum MessageType {
     CHANGE_PASSWORD, CHANGE_PASSWORD_SUCCESS, CHANGE_PASSWORD_FAILURE,
     UPDATE_PUBLIC_KEY, REQUEST_PUBLIC_KEY, PUBLIC_KEY_RESPONSE,
     HISTORY_REQUEST, HISTORY_RESPONSE,
-    CHAT_MESSAGE, CHAT_STATE_UPDATE;
+    CHAT_MESSAGE, CHAT_STATE_UPDATE,
+    // Added last so the binary codec's type ordinals stay as they were
+    RESUME_SESSION;
 }
\ No newline at end of file
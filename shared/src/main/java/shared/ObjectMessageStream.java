@@ -0,0 +1,47 @@
+package shared;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/* The original Java serialization protocol, kept for clients and servers that predate MessageCodec */
+final class ObjectMessageStream implements MessageStream {
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+
+    ObjectMessageStream(InputStream in, OutputStream out) throws IOException {
+        // The peer blocks on our header before it reads anything, so it must go out immediately
+        this.out = new ObjectOutputStream(new BufferedOutputStream(out));
+        this.out.flush();
+        this.in = new ObjectInputStream(in);
+    }
+
+    @Override
+    public Message read() throws IOException, ClassNotFoundException {
+        return (Message) in.readObject();
+    }
+
+    @Override
+    public void write(Message msg) throws IOException {
+        out.writeObject(msg);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+        out.close();
+    }
+}
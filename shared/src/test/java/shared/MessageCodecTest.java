@@ -0,0 +1,134 @@
+package shared;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageCodecTest {
+    private final MessageCodec codec = new MessageCodec();
+
+    @Test
+    void everyFieldRoundTrips() throws StreamCorruptedException {
+        Message msg = new Message(MessageType.CHAT_MESSAGE, "alice", "bob", cipher(256) + "|IN_CHAT");
+        msg.setClientId(70_000);
+        assertMessageEquals(msg, roundTrip(msg));
+    }
+
+    @Test
+    void nullFieldsAndNonAsciiTextRoundTrip() throws StreamCorruptedException {
+        assertMessageEquals(new Message(MessageType.LOGOUT, null, null, null), roundTrip(new Message(MessageType.LOGOUT, null, null, null)));
+        Message text = new Message(MessageType.CHAT, "Zoë", "Łukasz", "héllo 👋 — 你好");
+        assertMessageEquals(text, roundTrip(text));
+        Message empty = new Message(MessageType.SEARCH_USER, "", "", "");
+        assertMessageEquals(empty, roundTrip(empty));
+    }
+
+    @Test
+    void base64ContentOfEveryLengthRoundTripsExactly() throws StreamCorruptedException {
+        for (int bytes = 0; bytes < 64; bytes++) {
+            for (String suffix : new String[]{"", "|NOT_IN_CHAT", "==|x", "-_"}) {
+                Message msg = new Message(MessageType.HISTORY_RESPONSE, "alice", "bob", cipher(bytes) + suffix);
+                assertMessageEquals(msg, roundTrip(msg));
+            }
+        }
+    }
+
+    @Test
+    void framesDecodeBackToBack() throws StreamCorruptedException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(codec.encode(new Message(MessageType.CHAT, "u" + i, "v", "m" + i), buf));
+        }
+        buf.flip();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("m" + i, codec.decode(buf).getContent());
+        }
+        assertNull(codec.decode(buf));
+        assertEquals(0, buf.remaining());
+    }
+
+    @Test
+    void encodeWithoutRoomLeavesBufferUntouched() {
+        Message msg = new Message(MessageType.CHAT_MESSAGE, "alice", "bob", cipher(512));
+        int size = codec.frameSize(msg);
+
+        ByteBuffer small = ByteBuffer.allocate(size - 1);
+        assertFalse(codec.encode(msg, small));
+        assertEquals(0, small.position());
+
+        ByteBuffer exact = ByteBuffer.allocate(size);
+        assertTrue(codec.encode(msg, exact));
+        assertEquals(0, exact.remaining());
+    }
+
+    @Test
+    void incompleteFrameDecodesAsNullWithoutConsuming() throws StreamCorruptedException {
+        ByteBuffer frame = encode(new Message(MessageType.CHAT_MESSAGE, "alice", "bob", cipher(300) + "|IN_CHAT"));
+        for (int length = 0; length < frame.limit(); length++) {
+            ByteBuffer partial = frame.duplicate().limit(length);
+            assertNull(codec.decode(partial));
+            assertEquals(0, partial.position());
+        }
+    }
+
+    @Test
+    void frameOverMaxSizeIsRejected() {
+        int body = MessageCodec.MAX_FRAME + 1;
+        ByteBuffer buf = ByteBuffer.allocate(MessageCodec.varintSize(body) + body);
+        MessageCodec.writeVarint(buf, body);
+        buf.position(0);
+        assertThrows(StreamCorruptedException.class, () -> codec.decode(buf));
+    }
+
+    @Test
+    void unknownTypeAndLengthMismatchAreRejected() {
+        ByteBuffer unknownType = ByteBuffer.allocate(8);
+        MessageCodec.writeVarint(unknownType, 2);
+        MessageCodec.writeVarint(unknownType, MessageType.values().length);
+        unknownType.put((byte) 0).flip();
+        assertThrows(StreamCorruptedException.class, () -> codec.decode(unknownType));
+
+        // A body one byte longer than its fields
+        ByteBuffer padded = ByteBuffer.allocate(8);
+        MessageCodec.writeVarint(padded, 3);
+        MessageCodec.writeVarint(padded, MessageType.LOGOUT.ordinal());
+        padded.put((byte) 0).put((byte) 0).flip();
+        assertThrows(StreamCorruptedException.class, () -> codec.decode(padded));
+    }
+
+    private Message roundTrip(Message msg) throws StreamCorruptedException {
+        ByteBuffer buf = encode(msg);
+        Message decoded = codec.decode(buf);
+        assertEquals(0, buf.remaining());
+        return decoded;
+    }
+
+    private ByteBuffer encode(Message msg) {
+        ByteBuffer buf = ByteBuffer.allocate(codec.frameSize(msg));
+        assertTrue(codec.encode(msg, buf));
+        return buf.flip();
+    }
+
+    private static void assertMessageEquals(Message expected, Message actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getSender(), actual.getSender());
+        assertEquals(expected.getReceiver(), actual.getReceiver());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getClientId(), actual.getClientId());
+    }
+
+    private static String cipher(int bytes) {
+        byte[] raw = new byte[bytes];
+        new Random(bytes).nextBytes(raw);
+        return Base64.getEncoder().encodeToString(raw);
+    }
+}